@@ -0,0 +1,103 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction de l'AVL des couleurs (depuis l'image et depuis le R-quadtree)
+ * et opérations unitaires search / insert / remove sur l'AVL de l'image
+ * Pour garder l'arbre stable d'une invocation à l'autre, insert et remove sont mesurés par paires :
+ * insertion d'une couleur absente puis retrait, et retrait d'une couleur présente puis réinsertion
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AVLBenchmark {
+
+    @Param({ "2.png", "4.png", "8.png", "16.png", "32-tux.png", "64-tuxette.png", "128-gnu.png",
+             "256-tux.png", "512-books.png", "1024-cube.png",
+             "synthetic-photo-2048", "synthetic-text-3000x1000", "synthetic-flat-4096" })
+    public String image;
+
+    private Object img;
+    private Object tree;
+    private Object avl;
+    private String[] present;     // Couleurs de l'AVL
+    private String[] absent;      // Couleurs absentes de l'AVL
+    private Color[] absentColors;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        img = BenchmarkImages.load(image);
+        tree = Project.tree(img);
+        avl = Project.avlFromImage(img);
+
+        List<String> colors = Project.colors(avl);
+        present = colors.toArray(new String[0]);
+        Random random = new Random(42);
+        absent = new String[1024];
+        absentColors = new Color[absent.length];
+        for (int i = 0; i < absent.length; ) {
+            int rgb = random.nextInt(0x1000000);
+            String hex = String.format("%06x", rgb);
+            if (Project.search(avl, hex) == null) {
+                absent[i] = hex;
+                absentColors[i] = new Color(rgb);
+                i++;
+            }
+        }
+    }
+
+    @Benchmark
+    public Object fromImage() throws Throwable {
+        return Project.avlFromImage(img);
+    }
+
+    @Benchmark
+    public Object fromQuadtree() throws Throwable {
+        return Project.avlFromTree(tree);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Color search() throws Throwable {
+        next = (next + 1) % present.length;
+        return Project.search(avl, present[next]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int insertThenRemove() throws Throwable {
+        next = (next + 1) % absent.length;
+        Project.insert(avl, absent[next], absentColors[next]);
+        Project.remove(avl, absent[next]);
+        return Project.size(avl);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int removeThenInsert() throws Throwable {
+        next = (next + 1) % present.length;
+        Color color = Project.search(avl, present[next]);
+        Project.remove(avl, present[next]);
+        Project.insert(avl, present[next], color);
+        return Project.size(avl);
+    }
+}
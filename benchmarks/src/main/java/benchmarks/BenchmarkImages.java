@@ -0,0 +1,36 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Images d'entrée des benchmarks : fichiers du répertoire images/ du projet,
+ * ou image synthétique "synthetic-<type>-<largeur>[x<hauteur>]" produite par SyntheticImages
+ * (déterministe, aucun fichier à versionner)
+ * Le répertoire des images peut être forcé par -Dbench.images=<chemin>
+ */
+final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    static Object load(String name) throws Throwable {
+        if (name.startsWith("synthetic-")) {
+            return Project.synthetic(name.substring("synthetic-".length()));
+        }
+        return Project.image(new File(imagesDir(), name).getPath());
+    }
+
+    private static File imagesDir() throws IOException {
+        String configured = System.getProperty("bench.images");
+        if (configured != null) {
+            return new File(configured);
+        }
+        // Lancé depuis benchmarks/ ou depuis la racine du projet
+        for (String candidate : new String[] { "../images", "images" }) {
+            File dir = new File(candidate);
+            if (dir.isDirectory()) return dir;
+        }
+        throw new IOException("Répertoire images/ introuvable (utilisez -Dbench.images=<chemin>)");
+    }
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compression Lambda sur l'arbre complet de chaque image
+ * withLambda compresse une version obtenue par fork() : l'arbre de base reste intact d'une invocation à l'autre
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressLambdaBenchmark {
+
+    @Param({ "2.png", "4.png", "8.png", "16.png", "32-tux.png", "64-tuxette.png", "128-gnu.png",
+             "256-tux.png", "512-books.png", "1024-cube.png",
+             "synthetic-photo-2048", "synthetic-text-3000x1000", "synthetic-flat-4096" })
+    public String image;
+
+    @Param({ "5", "20", "80" })
+    public double lambda;
+
+    private Object base;
+
+    @Setup
+    public void setup() throws Throwable {
+        base = Project.tree(BenchmarkImages.load(image));
+    }
+
+    @Benchmark
+    public Object compressLambda() throws Throwable {
+        return Project.withLambda(base, lambda);
+    }
+}
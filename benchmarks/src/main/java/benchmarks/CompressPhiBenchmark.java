@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compression Phi pour plusieurs nombres de feuilles cibles
+ * Les grandes images sont exclues par défaut (compressPhi est quadratique sur elles) ;
+ * elles restent mesurables avec -p image=512-books.png,1024-cube.png
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressPhiBenchmark {
+
+    @Param({ "2.png", "4.png", "8.png", "16.png", "32-tux.png", "64-tuxette.png", "128-gnu.png",
+             "256-tux.png", "synthetic-photo-256", "synthetic-text-384x128" })
+    public String image;
+
+    @Param({ "16", "256", "4096" })
+    public int phi;
+
+    private Object base;
+
+    @Setup
+    public void setup() throws Throwable {
+        base = Project.tree(BenchmarkImages.load(image));
+    }
+
+    @Benchmark
+    public Object compressPhi() throws Throwable {
+        return Project.withPhi(base, phi);
+    }
+}
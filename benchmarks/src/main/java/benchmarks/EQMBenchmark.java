@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calcul de l'EQM entre chaque image et sa version compressée (Lambda 20)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EQMBenchmark {
+
+    @Param({ "2.png", "4.png", "8.png", "16.png", "32-tux.png", "64-tuxette.png", "128-gnu.png",
+             "256-tux.png", "512-books.png", "1024-cube.png",
+             "synthetic-photo-2048", "synthetic-text-3000x1000", "synthetic-flat-4096" })
+    public String image;
+
+    private Object original;
+    private Object compressed;
+
+    @Setup
+    public void setup() throws Throwable {
+        original = BenchmarkImages.load(image);
+        compressed = Project.toPNG(Project.withLambda(Project.tree(original), 20));
+    }
+
+    @Benchmark
+    public double computeEQM() throws Throwable {
+        return Project.computeEQM(original, compressed);
+    }
+}
@@ -0,0 +1,157 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Accès aux classes du projet, qui sont dans le paquet par défaut
+ * JMH refuse les benchmarks du paquet par défaut, et une classe d'un paquet nommé ne peut pas
+ * importer une classe du paquet par défaut : les méthodes sont donc résolues une seule fois par nom
+ * Les MethodHandle static final sont des constantes pour le JIT (appel direct après compilation),
+ * leur coût est négligeable devant les opérations mesurées
+ */
+final class Project {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> IMAGE = load("ImagePNG");
+    private static final Class<?> TREE = load("RQuadtree");
+    private static final Class<?> AVL = load("AVL");
+    private static final Class<?> SYNTHETIC = load("SyntheticImages");
+
+    private static final MethodHandle IMAGE_FILE = constructor(IMAGE, String.class);
+    private static final MethodHandle SYNTHETIC_SPEC = staticMethod(SYNTHETIC, "generate", IMAGE, String.class);
+    private static final MethodHandle TREE_NEW = constructor(TREE, IMAGE);
+    private static final MethodHandle WITH_LAMBDA = method(TREE, "withLambda", TREE, double.class);
+    private static final MethodHandle WITH_PHI = method(TREE, "withPhi", TREE, int.class);
+    private static final MethodHandle TO_PNG = method(TREE, "toPNG", IMAGE);
+    private static final MethodHandle TO_STR = method(TREE, "toStr", String.class);
+    private static final MethodHandle AVL_FROM_IMAGE = constructor(AVL, IMAGE);
+    private static final MethodHandle AVL_FROM_TREE = constructor(AVL, TREE);
+    private static final MethodHandle AVL_SEARCH = method(AVL, "search", Color.class, String.class);
+    private static final MethodHandle AVL_INSERT = method(AVL, "insert", void.class, String.class, Color.class);
+    private static final MethodHandle AVL_REMOVE = method(AVL, "remove", void.class, String.class);
+    private static final MethodHandle AVL_SIZE = method(AVL, "size", int.class);
+    private static final MethodHandle AVL_COLORS = method(AVL, "getAllColors", List.class);
+    private static final MethodHandle EQM = staticMethod(IMAGE, "computeEQM", double.class, IMAGE, IMAGE);
+
+    private Project() {
+    }
+
+    static Object image(String filename) throws Throwable {
+        return (Object) IMAGE_FILE.invokeExact(filename);
+    }
+
+    static Object synthetic(String spec) throws Throwable {
+        return (Object) SYNTHETIC_SPEC.invokeExact(spec);
+    }
+
+    static Object tree(Object image) throws Throwable {
+        return (Object) TREE_NEW.invokeExact(image);
+    }
+
+    static Object withLambda(Object tree, double lambda) throws Throwable {
+        return (Object) WITH_LAMBDA.invokeExact(tree, lambda);
+    }
+
+    static Object withPhi(Object tree, int phi) throws Throwable {
+        return (Object) WITH_PHI.invokeExact(tree, phi);
+    }
+
+    static Object toPNG(Object tree) throws Throwable {
+        return (Object) TO_PNG.invokeExact(tree);
+    }
+
+    static String toStr(Object tree) throws Throwable {
+        return (String) TO_STR.invokeExact(tree);
+    }
+
+    static Object avlFromImage(Object image) throws Throwable {
+        return (Object) AVL_FROM_IMAGE.invokeExact(image);
+    }
+
+    static Object avlFromTree(Object tree) throws Throwable {
+        return (Object) AVL_FROM_TREE.invokeExact(tree);
+    }
+
+    static Color search(Object avl, String hex) throws Throwable {
+        return (Color) AVL_SEARCH.invokeExact(avl, hex);
+    }
+
+    static void insert(Object avl, String hex, Color color) throws Throwable {
+        AVL_INSERT.invokeExact(avl, hex, color);
+    }
+
+    static void remove(Object avl, String hex) throws Throwable {
+        AVL_REMOVE.invokeExact(avl, hex);
+    }
+
+    static int size(Object avl) throws Throwable {
+        return (int) AVL_SIZE.invokeExact(avl);
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> colors(Object avl) throws Throwable {
+        return (List<String>) AVL_COLORS.invokeExact(avl);
+    }
+
+    static double computeEQM(Object original, Object compressed) throws Throwable {
+        return (double) EQM.invokeExact(original, compressed);
+    }
+
+    // Résolution (au chargement de la classe) ; les types du projet sont vus comme Object par les appelants
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... params) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(owner, MethodType.methodType(void.class, params));
+            return erase(handle);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            return erase(LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, params)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> owner, String name, Class<?> returnType, Class<?>... params) {
+        try {
+            return erase(LOOKUP.findStatic(owner, name, MethodType.methodType(returnType, params)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Remplace les types du projet par Object dans la signature (les types JDK et primitifs sont gardés)
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isProjectType(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isProjectType(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isProjectType(Class<?> type) {
+        return type == IMAGE || type == TREE || type == AVL;
+    }
+}
@@ -0,0 +1,289 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Compression d'une image avec plusieurs paramètres en une seule passe
+ * L'image est décodée et le R-quadtree construit une seule fois, chaque variante
+ * est ensuite dérivée de cet arbre de base par fork() et traitée en parallèle
+ */
+public class BatchCompressor {
+
+    /**
+     * Une variante demandée : méthode (lambda ou phi) et paramètre
+     * Le paramètre est vérifié dès la construction (lambda ∈ [0, 255], phi > 0),
+     * une variante invalide n'atteint donc jamais la compression
+     */
+    public static class Variant {
+        final String method; // "lambda" ou "phi"
+        final int param;
+
+        public Variant(String method, int param) {
+            String methodLower = method.toLowerCase();
+            if (!methodLower.equals("lambda") && !methodLower.equals("phi")) {
+                throw new IllegalArgumentException("Méthode inconnue : " + method + " (utilisez Lambda ou Phi)");
+            }
+            if (methodLower.equals("lambda") && (param < 0 || param > 255)) {
+                throw new IllegalArgumentException("Lambda doit être entre 0 et 255 : " + param);
+            }
+            if (methodLower.equals("phi") && param <= 0) {
+                throw new IllegalArgumentException("Phi doit être > 0 : " + param);
+            }
+            this.method = methodLower;
+            this.param = param;
+        }
+
+        /**
+         * Lit une liste de variantes de la forme "Lambda 10,20,40 Phi 64,256"
+         * Les doublons sont ignorés (ils écriraient en même temps dans les mêmes fichiers)
+         * Complexité : O(v²) où v = nombre de variantes
+         */
+        public static List<Variant> parse(String[] args, int from) {
+            if ((args.length - from) % 2 != 0 || args.length == from) {
+                throw new IllegalArgumentException("Variantes attendues : <Lambda|Phi> <p1,p2,...> ...");
+            }
+            List<Variant> variants = new ArrayList<>();
+            for (int i = from; i < args.length; i += 2) {
+                for (String param : args[i + 1].split(",")) {
+                    Variant variant = new Variant(args[i], Integer.parseInt(param.trim()));
+                    if (!variants.contains(variant)) {
+                        variants.add(variant);
+                    }
+                }
+            }
+            return variants;
+        }
+
+        // Suffixe des fichiers de sortie, identique au mode non-interactif
+        String suffix() {
+            return "-" + method + param;
+        }
+
+        // Applique la compression sur une nouvelle version de l'arbre de base
+        RQuadtree applyTo(RQuadtree base) {
+            return method.equals("lambda") ? base.withLambda(param) : base.withPhi(param);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Variant)) return false;
+            Variant other = (Variant) o;
+            return method.equals(other.method) && param == other.param;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + param;
+        }
+
+        @Override
+        public String toString() {
+            return method + param;
+        }
+    }
+
+    /**
+     * Résultat d'une variante (fichiers produits et métriques)
+     */
+    public static class Result {
+        final Variant variant;
+        final String pngOutput, txtOutput, avlOutput;
+        final int width, height;
+        final int leavesBefore, leavesAfter, colors;
+        final long originalBytes, compressedBytes;
+        final double eqm;
+        final long elapsedNanos; // Durée de compression, rendu, encodage et mesure de la variante
+        final boolean cached;    // Résultat restauré depuis le cache (voir ResultCache)
+
+        Result(Variant variant, String pngOutput, String txtOutput, String avlOutput, int width, int height,
+               int leavesBefore, int leavesAfter, int colors, long originalBytes, long compressedBytes, double eqm,
+               long elapsedNanos, boolean cached) {
+            this.variant = variant;
+            this.pngOutput = pngOutput;
+            this.txtOutput = txtOutput;
+            this.avlOutput = avlOutput;
+            this.width = width;
+            this.height = height;
+            this.leavesBefore = leavesBefore;
+            this.leavesAfter = leavesAfter;
+            this.colors = colors;
+            this.originalBytes = originalBytes;
+            this.compressedBytes = compressedBytes;
+            this.eqm = eqm;
+            this.elapsedNanos = elapsedNanos;
+            this.cached = cached;
+        }
+
+        double weightRatio() {
+            return (double) compressedBytes / originalBytes * 100;
+        }
+
+        /**
+         * Ligne de rapport pour cette variante
+         */
+        public String report() {
+            return String.format("%-10s %7d feuilles  %9d octets (%6.2f%%)  EQM %7.4f%%  %6d couleurs  -> %s%s",
+                variant, leavesAfter, compressedBytes, weightRatio(), eqm, colors, pngOutput, cached ? " (cache)" : "");
+        }
+    }
+
+    /**
+     * Décode l'image, construit l'arbre de base puis produit toutes les variantes en parallèle
+     * Les variantes déjà présentes dans le cache (si activé) sont restaurées sans décodage
+     * Complexité : O(n + v × c) où n = nombre de pixels, v = nombre de variantes, c = coût d'une compression
+     */
+    public static List<Result> compress(String inputFile, List<Variant> variants) throws IOException {
+        ResultCache cache = ResultCache.shared();
+        String hash = cache == null ? null : ResultCache.hash(inputFile);
+        Result[] results = cachedResults(cache, hash, inputFile, variants);
+        List<Variant> missing = missing(variants, results);
+        if (missing.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        int threads = Math.max(1, Math.min(missing.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            PixelSource img = PixelSource.open(inputFile);
+            return merge(results, compress(inputFile, img, new RQuadtree(img), missing, pool, cache, hash));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Résultats des variantes présentes dans le cache, fichiers de sortie restaurés
+     * null pour les variantes absentes (ou pour toutes si le cache est désactivé)
+     */
+    static Result[] cachedResults(ResultCache cache, String hash, String inputFile, List<Variant> variants) {
+        Result[] results = new Result[variants.size()];
+        if (cache == null) return results;
+
+        long originalBytes = new File(inputFile).length();
+        for (int i = 0; i < results.length; i++) {
+            long start = System.nanoTime();
+            Variant variant = variants.get(i);
+            ResultCache.Entry entry = cache.lookup(hash, variant);
+            String prefix = outputPrefix(inputFile, variant);
+            if (entry != null && cache.restore(entry, prefix + ".png", prefix + "R.txt", prefix + "AVL.txt")) {
+                results[i] = new Result(variant, prefix + ".png", prefix + "R.txt", prefix + "AVL.txt",
+                    entry.width, entry.height, entry.leavesBefore, entry.leavesAfter, entry.colors, originalBytes,
+                    new File(prefix + ".png").length(), entry.eqm, System.nanoTime() - start, true);
+            }
+        }
+        return results;
+    }
+
+    // Variantes sans résultat en cache
+    static List<Variant> missing(List<Variant> variants, Result[] cached) {
+        List<Variant> missing = new ArrayList<>();
+        for (int i = 0; i < cached.length; i++) {
+            if (cached[i] == null) missing.add(variants.get(i));
+        }
+        return missing;
+    }
+
+    // Complète les résultats en cache par ceux calculés, dans l'ordre des variantes
+    static List<Result> merge(Result[] cached, List<Result> computed) {
+        List<Result> results = new ArrayList<>();
+        int next = 0;
+        for (Result result : cached) {
+            results.add(result != null ? result : computed.get(next++));
+        }
+        return results;
+    }
+
+    /**
+     * Produit toutes les variantes à partir d'une image déjà décodée et de son arbre de base
+     * L'arbre de base n'est pas modifié ; avec Runnable::run les variantes sont traitées dans le thread appelant
+     * Si cache n'est pas null, chaque résultat y est enregistré sous l'empreinte hash
+     */
+    static List<Result> compress(String inputFile, PixelSource img, RQuadtree base, List<Variant> variants,
+                                 Executor pool, ResultCache cache, String hash) throws IOException {
+        long originalBytes = new File(inputFile).length();
+        int leavesBefore = base.getLeafCount();
+
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Variant variant : variants) {
+            String prefix = outputPrefix(inputFile, variant);
+            FutureTask<Result> task = new FutureTask<>(() -> {
+                Result result = compressVariant(img, base, variant, prefix, leavesBefore, originalBytes);
+                if (cache != null) {
+                    store(cache, hash, result);
+                }
+                return result;
+            });
+            futures.add(task);
+            pool.execute(task);
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Traitement interrompu", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compresse, encode et mesure une variante
+     * L'EQM est calculé sur l'image rendue en mémoire (identique au fichier PNG, sans perte)
+     */
+    private static Result compressVariant(PixelSource img, RQuadtree base, Variant variant, String prefix,
+                                          int leavesBefore, long originalBytes) throws IOException {
+        long start = System.nanoTime();
+        RQuadtree quad = variant.applyTo(base);
+
+        String pngOutput = prefix + ".png";
+        String txtOutput = prefix + "R.txt";
+        String avlOutput = prefix + "AVL.txt";
+
+        AVL avl = new AVL(quad);
+        ImagePNG compressedImg = quad.toPNG(avl);
+        compressedImg.save(pngOutput);
+        saveToFile(quad.toStr(), txtOutput);
+        saveToFile(avl.toStr(), avlOutput);
+
+        double eqm = ImagePNG.computeEQM(img, compressedImg);
+        return new Result(variant, pngOutput, txtOutput, avlOutput, img.width(), img.height(), leavesBefore,
+                          quad.getLeafCount(), avl.size(), originalBytes, new File(pngOutput).length(), eqm,
+                          System.nanoTime() - start, false);
+    }
+
+    // Enregistre un résultat calculé dans le cache
+    static void store(ResultCache cache, String hash, Result r) throws IOException {
+        cache.store(hash, r.variant, r.pngOutput, r.txtOutput, r.avlOutput, r.width, r.height,
+                    r.leavesBefore, r.leavesAfter, r.colors, r.eqm);
+    }
+
+    /**
+     * Préfixe des fichiers de sortie d'une variante : <nom sans extension>-<méthode><paramètre>
+     */
+    static String outputPrefix(String inputFile, Variant variant) {
+        return PixelSource.baseName(inputFile) + variant.suffix();
+    }
+
+    static void saveToFile(String content, String filename) throws IOException {
+        try (FileWriter writer = new FileWriter(filename)) {
+            writer.write(content);
+        }
+    }
+}
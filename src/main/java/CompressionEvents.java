@@ -0,0 +1,353 @@
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Événements Java Flight Recorder des étapes de compression
+ * Ils ne coûtent presque rien sans enregistrement en cours ; les champs coûteux à calculer
+ * (nombre de nœuds, de feuilles) ne le sont que si l'événement sera enregistré (shouldCommit)
+ *
+ * Les événements de fusion (Merge) sont désactivés par défaut ; une fois activés, seule une fusion
+ * sur MERGE_SAMPLING est enregistrée (-Dcompression.jfr.mergeSampling=N, puissance de 2, 64 par défaut)
+ *
+ * Le projet cible Java 8 : aucune classe ne dépend de jdk.jfr à la compilation. Les types
+ * d'événements sont déclarés par réflexion (jdk.jfr.EventFactory, JDK 11+ ou 8u262+) ;
+ * sur une JVM sans JFR, les événements sont inertes (isEnabled et shouldCommit renvoient false)
+ */
+public final class CompressionEvents {
+
+    /** Période d'échantillonnage des événements de fusion (puissance de 2) */
+    static final int MERGE_SAMPLING = Integer.highestOneBit(Math.max(1, Integer.getInteger("compression.jfr.mergeSampling", 64)));
+
+    // Méthodes de jdk.jfr.Event et de jdk.jfr.EventType (null si JFR est absent)
+    private static final Method BEGIN, END, COMMIT, SHOULD_COMMIT, SET, NEW_EVENT, GET_EVENT_TYPE, TYPE_ENABLED;
+
+    static {
+        Method[] methods = new Method[8];
+        try {
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventType = Class.forName("jdk.jfr.EventType");
+            methods[0] = event.getMethod("begin");
+            methods[1] = event.getMethod("end");
+            methods[2] = event.getMethod("commit");
+            methods[3] = event.getMethod("shouldCommit");
+            methods[4] = event.getMethod("set", int.class, Object.class);
+            methods[5] = factory.getMethod("newEvent");
+            methods[6] = factory.getMethod("getEventType");
+            methods[7] = eventType.getMethod("isEnabled");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            Arrays.fill(methods, null); // JVM sans JFR : événements inertes
+        }
+        BEGIN = methods[0];
+        END = methods[1];
+        COMMIT = methods[2];
+        SHOULD_COMMIT = methods[3];
+        SET = methods[4];
+        NEW_EVENT = methods[5];
+        GET_EVENT_TYPE = methods[6];
+        TYPE_ENABLED = methods[7];
+    }
+
+    private static final Type IMAGE_LOAD = new Type("compression.ImageLoad", "Chargement d'image",
+        "Lecture et décodage d'un fichier PNG", true, new String[] { "Compression", "Image" },
+        field(String.class, "file", "Fichier", null),
+        field(int.class, "width", "Largeur", null),
+        field(int.class, "height", "Hauteur", null),
+        field(long.class, "fileBytes", "Taille du fichier", null, annotation("jdk.jfr.DataAmount", "BYTES")));
+
+    private static final Type TREE_BUILD = new Type("compression.TreeBuild", "Construction du R-quadtree",
+        null, true, new String[] { "Compression", "R-quadtree" },
+        field(int.class, "width", "Largeur", null),
+        field(int.class, "height", "Hauteur", null),
+        field(int.class, "nodes", "Nœuds", null),
+        field(int.class, "leaves", "Feuilles", null));
+
+    private static final Type COMPRESS = new Type("compression.Compress", "Compression",
+        "Une compression Lambda ou Phi complète", true, new String[] { "Compression", "R-quadtree" },
+        field(String.class, "method", "Méthode", null),
+        field(double.class, "parameter", "Paramètre", null),
+        field(int.class, "leavesBefore", "Feuilles avant", null),
+        field(int.class, "leavesAfter", "Feuilles après", null),
+        field(long.class, "merges", "Fusions effectuées", null),
+        field(long.class, "candidatesScanned", "Candidats examinés",
+              "Nœuds à 4 fils feuilles évalués (Phi : cumul sur toutes les itérations)"));
+
+    private static final Type MERGE = new Type("compression.Merge", "Fusion",
+        "Une fusion sur MERGE_SAMPLING pendant une compression", false, new String[] { "Compression", "R-quadtree" },
+        field(String.class, "method", "Méthode", null),
+        field(int.class, "x", "X", null),
+        field(int.class, "y", "Y", null),
+        field(int.class, "size", "Taille", null),
+        field(double.class, "criterion", "Critère", "Lambda : écart maximal de luminance ; Phi : variance de luminance"));
+
+    private static final Type RENDER = new Type("compression.Render", "Rendu",
+        "Conversion du R-quadtree en image", true, new String[] { "Compression", "Image" },
+        field(int.class, "width", "Largeur", null),
+        field(int.class, "height", "Hauteur", null));
+
+    private static final Type ENCODE = new Type("compression.Encode", "Encodage PNG",
+        null, true, new String[] { "Compression", "Image" },
+        field(int.class, "width", "Largeur", null),
+        field(int.class, "height", "Hauteur", null),
+        field(String.class, "target", "Destination", null));
+
+    private static final Type EQM_TYPE = new Type("compression.EQM", "Calcul de l'EQM",
+        null, true, new String[] { "Compression", "Image" },
+        field(long.class, "pixels", "Pixels", null),
+        field(double.class, "eqm", "EQM", null));
+
+    private CompressionEvents() {
+    }
+
+    /**
+     * Type d'événement déclaré auprès de JFR (factory null si JFR est absent)
+     */
+    private static final class Type {
+        private final Object factory;     // jdk.jfr.EventFactory
+        private final Object eventType;   // jdk.jfr.EventType
+
+        Type(String name, String label, String description, boolean enabled, String[] category, Object... fields) {
+            Object factory = null, eventType = null;
+            if (NEW_EVENT != null) {
+                try {
+                    List<Object> annotations = new ArrayList<>();
+                    annotations.add(annotation("jdk.jfr.Name", name));
+                    annotations.add(annotation("jdk.jfr.Label", label));
+                    annotations.add(annotation("jdk.jfr.Category", category));
+                    if (description != null) annotations.add(annotation("jdk.jfr.Description", description));
+                    annotations.add(annotation("jdk.jfr.Enabled", enabled));
+                    Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+                    factory = factoryClass.getMethod("create", List.class, List.class)
+                        .invoke(null, annotations, Arrays.asList(fields));
+                    eventType = GET_EVENT_TYPE.invoke(factory);
+                } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                    factory = eventType = null;
+                }
+            }
+            this.factory = factory;
+            this.eventType = eventType;
+        }
+
+        // Nouvel événement JFR, ou null si JFR est absent ou si aucun enregistrement ne le demande
+        Object newEvent() {
+            if (factory == null) return null;
+            try {
+                return (Boolean) TYPE_ENABLED.invoke(eventType) ? NEW_EVENT.invoke(factory) : null;
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+    }
+
+    // jdk.jfr.AnnotationElement pour l'annotation nommée (null si JFR est absent)
+    private static Object annotation(String annotationClass, Object value) {
+        if (NEW_EVENT == null) return null;
+        try {
+            Class<? extends Annotation> type = Class.forName(annotationClass).asSubclass(Annotation.class);
+            Constructor<?> constructor = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            return constructor.newInstance(type, value);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // jdk.jfr.ValueDescriptor d'un champ (null si JFR est absent)
+    private static Object field(Class<?> type, String name, String label, String description, Object... extra) {
+        if (NEW_EVENT == null) return null;
+        try {
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation("jdk.jfr.Label", label));
+            if (description != null) annotations.add(annotation("jdk.jfr.Description", description));
+            Collections.addAll(annotations, extra);
+            Constructor<?> constructor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+            return constructor.newInstance(type, name, annotations);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Événement en cours : même usage qu'un jdk.jfr.Event (begin, end, shouldCommit, commit),
+     * les champs sont ceux de la sous-classe et sont copiés dans l'événement JFR au commit
+     */
+    abstract static class Span {
+        private final Object event; // Événement JFR, null si rien ne sera enregistré
+
+        Span(Type type) {
+            this.event = type.newEvent();
+        }
+
+        /** Valeurs des champs, dans l'ordre de déclaration du type */
+        abstract Object[] values();
+
+        boolean isEnabled() {
+            return event != null;
+        }
+
+        void begin() {
+            call(BEGIN);
+        }
+
+        void end() {
+            call(END);
+        }
+
+        boolean shouldCommit() {
+            return event != null && Boolean.TRUE.equals(call(SHOULD_COMMIT));
+        }
+
+        void commit() {
+            if (event == null) return;
+            Object[] values = values();
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    SET.invoke(event, i, values[i]);
+                }
+            } catch (ReflectiveOperationException e) {
+                return;
+            }
+            call(COMMIT);
+        }
+
+        private Object call(Method method) {
+            if (event == null) return null;
+            try {
+                return method.invoke(event);
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+    }
+
+    static class ImageLoad extends Span {
+        String file;
+        int width;
+        int height;
+        long fileBytes;
+
+        ImageLoad() {
+            super(IMAGE_LOAD);
+        }
+
+        @Override
+        Object[] values() {
+            return new Object[] { file, width, height, fileBytes };
+        }
+    }
+
+    static class TreeBuild extends Span {
+        int width;
+        int height;
+        int nodes;
+        int leaves;
+
+        TreeBuild() {
+            super(TREE_BUILD);
+        }
+
+        @Override
+        Object[] values() {
+            return new Object[] { width, height, nodes, leaves };
+        }
+    }
+
+    static class Compress extends Span {
+        String method;
+        double parameter;
+        int leavesBefore;
+        int leavesAfter;
+        long merges;
+        long candidatesScanned;
+
+        Compress() {
+            super(COMPRESS);
+        }
+
+        @Override
+        Object[] values() {
+            return new Object[] { method, parameter, leavesBefore, leavesAfter, merges, candidatesScanned };
+        }
+    }
+
+    static class Merge extends Span {
+        String method;
+        int x;
+        int y;
+        int size;
+        double criterion;
+
+        Merge() {
+            super(MERGE);
+        }
+
+        @Override
+        Object[] values() {
+            return new Object[] { method, x, y, size, criterion };
+        }
+    }
+
+    static class Render extends Span {
+        int width;
+        int height;
+
+        Render() {
+            super(RENDER);
+        }
+
+        @Override
+        Object[] values() {
+            return new Object[] { width, height };
+        }
+    }
+
+    static class Encode extends Span {
+        int width;
+        int height;
+        String target;
+
+        Encode() {
+            super(ENCODE);
+        }
+
+        @Override
+        Object[] values() {
+            return new Object[] { width, height, target };
+        }
+    }
+
+    static class EQM extends Span {
+        long pixels;
+        double eqm;
+
+        EQM() {
+            super(EQM_TYPE);
+        }
+
+        @Override
+        Object[] values() {
+            return new Object[] { pixels, eqm };
+        }
+    }
+
+    /**
+     * Enregistre une fusion si elle tombe sur la période d'échantillonnage
+     * Complexité : O(1)
+     */
+    static void merge(long mergeIndex, String method, int x, int y, int size, double criterion) {
+        if ((mergeIndex & (MERGE_SAMPLING - 1)) != 0) return;
+        Merge event = new Merge();
+        if (event.isEnabled()) {
+            event.method = method;
+            event.x = x;
+            event.y = y;
+            event.size = size;
+            event.criterion = criterion;
+            event.commit();
+        }
+    }
+}
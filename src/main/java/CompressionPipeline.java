@@ -0,0 +1,417 @@
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chaîne de traitement en 4 étages reliés par des files bornées :
+ * décodage (E/S + inflate) -> compression (CPU) -> rendu/encodage (CPU + deflate) -> écriture (E/S)
+ * Chaque étage a ses propres threads : les étages d'E/S et de calcul se recouvrent
+ * et le débit est fixé par l'étage le plus lent
+ * Les files sont bornées en nombre de travaux ; un plafond de pixels (maxPixels) borne en plus
+ * la mémoire des images décodées, du décodage jusqu'à la fin de l'encodage de leur dernière variante
+ */
+public class CompressionPipeline {
+
+    /**
+     * Travail circulant dans la chaîne : une image, puis une variante de cette image
+     * après l'étage de compression
+     */
+    static final class Job {
+        final int index;            // Position de l'image dans la liste d'entrée
+        final String inputFile;
+        PixelSource img;
+        int width, height;
+        long decodeNanos, buildNanos;
+        int leavesBefore;
+        String hash;                // Empreinte du fichier si le cache est activé
+        BatchCompressor.Result[] cached;
+        int permits;                // Pixels réservés dans le budget pour l'image décodée (0 : aucun)
+        AtomicInteger holders;      // Travaux de l'image qui utilisent encore ces pixels
+
+        BatchCompressor.Variant variant;
+        RQuadtree quad;
+        byte[] png;
+        String treeText, avlText;
+        int leavesAfter, colors;
+        double eqm;
+        long variantNanos;          // Compression + rendu/encodage + écriture de la variante
+        BatchCompressor.Result result;
+        Throwable error;            // Exception ou erreur (OutOfMemoryError...) d'un étage
+
+        Job(int index, String inputFile) {
+            this.index = index;
+            this.inputFile = inputFile;
+        }
+
+        Job forVariant(BatchCompressor.Variant variant) {
+            Job job = new Job(index, inputFile);
+            job.img = img;
+            job.width = width;
+            job.height = height;
+            job.decodeNanos = decodeNanos;
+            job.buildNanos = buildNanos;
+            job.leavesBefore = leavesBefore;
+            job.hash = hash;
+            job.permits = permits;
+            job.holders = holders;
+            job.variant = variant;
+            return job;
+        }
+    }
+
+    // Travail d'un étage : transforme un travail en zéro, un ou plusieurs travaux pour l'étage suivant
+    private interface StageFunction {
+        List<Job> process(Job job) throws Exception;
+    }
+
+    private static final Job END = new Job(-1, null); // Marque de fin de flux
+
+    /**
+     * Un étage : sa file d'entrée, ses threads et ses métriques
+     */
+    public static final class Stage {
+        final String name;
+        final int threads;
+        final BlockingQueue<Job> queue;
+        private final StageFunction function;
+        private final AtomicInteger running;
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+        private Stage next;
+
+        Stage(String name, int threads, int capacity, StageFunction function) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("L'étage " + name + " doit avoir au moins un thread");
+            }
+            this.name = name;
+            this.threads = threads;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.function = function;
+            this.running = new AtomicInteger(threads);
+        }
+
+        /** Nombre de travaux en attente devant cet étage */
+        public int queueDepth() {
+            return queue.size();
+        }
+
+        /** Plus grand nombre de travaux observés en attente */
+        public int maxQueueDepth() {
+            return maxDepth.get();
+        }
+
+        /** Temps total passé à traiter des travaux, tous threads confondus */
+        public long busyNanos() {
+            return busyNanos.get();
+        }
+
+        /** Nombre de travaux traités */
+        public long items() {
+            return items.get();
+        }
+
+        void put(Job job) throws InterruptedException {
+            queue.put(job); // Bloque si la file est pleine : contre-pression sur l'étage précédent
+            int depth = queue.size();
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        void work(List<Job> sink) {
+            try {
+                Job job;
+                while ((job = queue.take()) != END) {
+                    long start = System.nanoTime();
+                    List<Job> out;
+                    if (job.error != null || job.result != null) {
+                        // Erreur d'un étage précédent ou résultat en cache : transmis tel quel
+                        out = Collections.singletonList(job);
+                    } else {
+                        try {
+                            out = function.process(job);
+                        } catch (Throwable e) {
+                            // Une erreur (mémoire épuisée sur une grande image...) ne doit pas tuer le thread :
+                            // le travail est transmis en erreur et le lot continue
+                            job.error = e;
+                            out = Collections.singletonList(job);
+                        }
+                    }
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                    items.incrementAndGet();
+
+                    for (Job result : out) {
+                        if (next != null) {
+                            next.put(result);
+                        } else {
+                            synchronized (sink) {
+                                sink.add(result);
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // Le dernier thread de l'étage propage la fin à l'étage suivant, même s'il s'arrête
+                // sur une erreur : run() ne reste jamais bloqué sur join()
+                if (running.decrementAndGet() == 0 && next != null) {
+                    propagateEnd();
+                }
+            }
+        }
+
+        private void propagateEnd() {
+            boolean interrupted = Thread.interrupted();
+            for (int i = 0; i < next.threads; ) {
+                try {
+                    next.queue.put(END);
+                    i++;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final List<BatchCompressor.Variant> variants;
+    private final Stage decode, compress, encode, write;
+    private ResultCache cache;
+    private long maxPixels;               // 0 : pas de plafond
+    private Semaphore pixelBudget;
+
+    /**
+     * Crée la chaîne avec le nombre de threads de chaque étage
+     * et la capacité des files entre étages
+     */
+    public CompressionPipeline(List<BatchCompressor.Variant> variants, int decodeThreads, int compressThreads,
+                               int encodeThreads, int writeThreads, int queueCapacity) {
+        this.variants = variants;
+        this.decode = new Stage("décodage", decodeThreads, queueCapacity, this::decode);
+        this.compress = new Stage("compression", compressThreads, queueCapacity, this::compress);
+        this.encode = new Stage("rendu/encodage", encodeThreads, queueCapacity, this::encode);
+        this.write = new Stage("écriture", writeThreads, queueCapacity, this::write);
+        decode.next = compress;
+        compress.next = encode;
+        encode.next = write;
+    }
+
+    /**
+     * Active le cache de résultats : les variantes déjà en cache ne sont ni décodées ni compressées
+     */
+    public CompressionPipeline cache(ResultCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Plafonne le nombre de pixels décodés simultanément : le décodage attend que le budget le permette
+     * Une image plus grande que le plafond prend tout le budget, sans bloquer indéfiniment
+     */
+    public CompressionPipeline maxPixels(long maxPixels) {
+        if (maxPixels <= 0) {
+            throw new IllegalArgumentException("Le plafond de pixels doit être > 0");
+        }
+        this.maxPixels = maxPixels;
+        this.pixelBudget = new Semaphore((int) Math.min(maxPixels, Integer.MAX_VALUE));
+        return this;
+    }
+
+    /**
+     * Étages de la chaîne, dans l'ordre (pour consulter les métriques pendant ou après l'exécution)
+     */
+    public List<Stage> stages() {
+        List<Stage> stages = new ArrayList<>();
+        Collections.addAll(stages, decode, compress, encode, write);
+        return stages;
+    }
+
+    /**
+     * Traite toutes les images et retourne les travaux terminés, triés par image puis par variante
+     * Un travail en erreur porte l'exception dans error
+     */
+    public List<Job> run(List<String> inputs) throws InterruptedException {
+        List<Job> done = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (Stage stage : stages()) {
+            for (int i = 0; i < stage.threads; i++) {
+                Thread thread = new Thread(() -> stage.work(done), "pipeline-" + stage.name + "-" + i);
+                workers.add(thread);
+                thread.start();
+            }
+        }
+
+        for (int i = 0; i < inputs.size(); i++) {
+            decode.put(new Job(i, inputs.get(i)));
+        }
+        for (int i = 0; i < decode.threads; i++) {
+            decode.queue.put(END);
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+
+        done.sort((a, b) -> a.index != b.index ? Integer.compare(a.index, b.index)
+                          : Integer.compare(variants.indexOf(a.variant), variants.indexOf(b.variant)));
+        return done;
+    }
+
+    /**
+     * Tableau des métriques par étage : travaux, temps occupé, file d'attente
+     */
+    public String metricsReport(long elapsedNanos) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %7s %8s %10s %8s %8s%n", "étage", "threads", "travaux", "occupé ms", "usage", "file max"));
+        for (Stage stage : stages()) {
+            double usage = elapsedNanos > 0 ? 100.0 * stage.busyNanos() / (elapsedNanos * (double) stage.threads) : 0;
+            sb.append(String.format("%-16s %7d %8d %10d %7.1f%% %8d%n", stage.name, stage.threads, stage.items(),
+                                    stage.busyNanos() / 1_000_000, usage, stage.maxQueueDepth()));
+        }
+        return sb.toString();
+    }
+
+    // Étages
+
+    private List<Job> decode(Job job) throws IOException, InterruptedException {
+        if (cache != null) {
+            job.hash = ResultCache.hash(job.inputFile);
+            job.cached = BatchCompressor.cachedResults(cache, job.hash, job.inputFile, variants);
+            if (BatchCompressor.missing(variants, job.cached).isEmpty()) {
+                return cachedJobs(job); // Tout est en cache : pas de décodage
+            }
+        }
+
+        if (pixelBudget != null) {
+            Dimension size = PixelSource.readSize(job.inputFile);
+            int needed = (int) Math.min((long) size.width * size.height, Math.min(maxPixels, Integer.MAX_VALUE));
+            pixelBudget.acquire(needed);
+            job.permits = needed;
+            job.holders = new AtomicInteger(1);
+        }
+        try {
+            long start = System.nanoTime();
+            job.img = PixelSource.open(job.inputFile);
+            job.width = job.img.width();
+            job.height = job.img.height();
+            job.decodeNanos = System.nanoTime() - start;
+        } catch (Throwable e) {
+            releasePixels(job);
+            throw e;
+        }
+        return Collections.singletonList(job);
+    }
+
+    private List<Job> compress(Job job) {
+        try {
+            long start = System.nanoTime();
+            RQuadtree base = new RQuadtree(job.img);
+            job.buildNanos = System.nanoTime() - start;
+            job.leavesBefore = base.getLeafCount();
+
+            List<Job> out = cachedJobs(job);
+            int computed = 0;
+            for (int i = 0; i < variants.size(); i++) {
+                if (job.cached != null && job.cached[i] != null) continue;
+                BatchCompressor.Variant variant = variants.get(i);
+                Job variantJob = job.forVariant(variant);
+                long variantStart = System.nanoTime();
+                variantJob.quad = variant.applyTo(base);
+                variantJob.variantNanos = System.nanoTime() - variantStart;
+                out.add(variantJob);
+                computed++;
+            }
+            // Chaque variante garde l'image jusqu'à son encodage ; compté une fois toutes les variantes réussies,
+            // sinon les travaux abandonnés garderaient le budget de pixels indéfiniment
+            if (job.holders != null) job.holders.addAndGet(computed);
+            return out;
+        } finally {
+            releasePixels(job);
+        }
+    }
+
+    // Libère les pixels de l'image quand le dernier travail qui l'utilise n'en a plus besoin
+    private void releasePixels(Job job) {
+        if (job.permits > 0 && job.holders.decrementAndGet() == 0) {
+            pixelBudget.release(job.permits);
+        }
+        job.permits = 0;
+    }
+
+    // Travaux déjà terminés pour les variantes trouvées dans le cache
+    private List<Job> cachedJobs(Job job) {
+        List<Job> out = new ArrayList<>();
+        if (job.cached == null) return out;
+        for (BatchCompressor.Result result : job.cached) {
+            if (result != null) {
+                Job variantJob = job.forVariant(result.variant);
+                variantJob.width = result.width;
+                variantJob.height = result.height;
+                variantJob.img = null;
+                variantJob.permits = 0;
+                variantJob.result = result;
+                out.add(variantJob);
+            }
+        }
+        return out;
+    }
+
+    private List<Job> encode(Job job) throws IOException {
+        try {
+            long start = System.nanoTime();
+            AVL avl = new AVL(job.quad);
+            ImagePNG compressedImg = job.quad.toPNG(avl);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            compressedImg.write(bytes);
+            job.png = bytes.toByteArray();
+
+            job.treeText = job.quad.toStr();
+            job.avlText = avl.toStr();
+            job.colors = avl.size();
+            job.leavesAfter = job.quad.getLeafCount();
+            job.eqm = ImagePNG.computeEQM(job.img, compressedImg);
+
+            job.quad = null; // L'arbre n'est plus nécessaire
+            job.variantNanos += System.nanoTime() - start;
+            return Collections.singletonList(job);
+        } finally {
+            job.img = null;
+            releasePixels(job);
+        }
+    }
+
+    private List<Job> write(Job job) throws IOException {
+        long start = System.nanoTime();
+        String prefix = BatchCompressor.outputPrefix(job.inputFile, job.variant);
+        String pngOutput = prefix + ".png";
+        try (OutputStream out = new FileOutputStream(pngOutput)) {
+            out.write(job.png);
+        }
+        BatchCompressor.saveToFile(job.treeText, prefix + "R.txt");
+        BatchCompressor.saveToFile(job.avlText, prefix + "AVL.txt");
+        job.variantNanos += System.nanoTime() - start;
+
+        job.result = new BatchCompressor.Result(job.variant, pngOutput, prefix + "R.txt", prefix + "AVL.txt",
+            job.width, job.height, job.leavesBefore, job.leavesAfter, job.colors, new File(job.inputFile).length(),
+            job.png.length, job.eqm, job.variantNanos, false);
+        if (cache != null) {
+            BatchCompressor.store(cache, job.hash, job.result);
+        }
+        job.img = null;
+        job.png = null;
+        job.treeText = job.avlText = null;
+        return Collections.singletonList(job);
+    }
+}
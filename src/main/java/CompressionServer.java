@@ -0,0 +1,211 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service de compression HTTP, à l'écoute sur l'interface locale uniquement
+ * Une seule JVM reste chaude entre les requêtes (pas de démarrage de processus par image)
+ *
+ * POST /compress?method=lambda|phi&param=N[&format=png|tree|avl][&region=x,y,l,h][&subsample=k]
+ *   corps : image PNG ; réponse : image compressée (format=png, par défaut),
+ *   R-quadtree texte (format=tree) ou AVL texte (format=avl)
+ *   region et subsample restreignent le décodage à une zone et/ou à un pixel sur k
+ *   en-têtes : X-EQM, X-Leaves-Before, X-Leaves-After, X-Colors
+ *   400 si un paramètre est invalide (méthode inconnue, lambda hors de [0, 255], phi ≤ 0, ...)
+ *   ou si l'image est illisible, 413 si l'image dépasse MAX_BODY
+ * GET /health : "ok"
+ */
+public class CompressionServer {
+
+    private static final int MAX_BODY = 64 * 1024 * 1024; // Taille maximale d'une image reçue
+
+    private final HttpServer server;
+    private final ExecutorService pool;
+
+    /**
+     * Crée le serveur sur 127.0.0.1:port avec un pool de threads de traitement
+     * port = 0 choisit un port libre (voir getPort)
+     */
+    public CompressionServer(int port, int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Le nombre de threads doit être > 0");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        pool = Executors.newFixedThreadPool(threads);
+        server.setExecutor(pool);
+        server.createContext("/compress", this::handleCompress);
+        server.createContext("/health", exchange -> send(exchange, 200, "text/plain", "ok\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Arrête d'accepter des requêtes et attend la fin de celles en cours (au plus delaySeconds)
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        pool.shutdown();
+        try {
+            pool.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleCompress(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Méthode POST attendue");
+                return;
+            }
+
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            BatchCompressor.Variant variant;
+            Rectangle region = null;
+            int subsample;
+            String format = query.getOrDefault("format", "png").toLowerCase(Locale.ROOT);
+            try {
+                String method = query.get("method");
+                String param = query.get("param");
+                if (method == null || param == null) {
+                    throw new IllegalArgumentException("Paramètres method et param obligatoires");
+                }
+                variant = new BatchCompressor.Variant(method, Integer.parseInt(param)); // Vérifie aussi la plage du paramètre
+                if (!format.equals("png") && !format.equals("tree") && !format.equals("avl")) {
+                    throw new IllegalArgumentException("Format inconnu : " + format + " (png, tree ou avl)");
+                }
+                if (query.containsKey("region")) {
+                    region = parseRegion(query.get("region"));
+                }
+                subsample = Integer.parseInt(query.getOrDefault("subsample", "1"));
+                if (subsample < 1) {
+                    throw new IllegalArgumentException("subsample doit être ≥ 1");
+                }
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                sendError(exchange, 413, "Image trop grande (maximum " + MAX_BODY + " octets)");
+                return;
+            }
+            ImagePNG img;
+            try {
+                img = region == null && subsample == 1
+                    ? new ImagePNG(new ByteArrayInputStream(body))
+                    : new ImagePNG(new ByteArrayInputStream(body), region, subsample);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage()); // Zone hors de l'image
+                return;
+            } catch (IOException e) {
+                sendError(exchange, 400, "Image illisible : " + e.getMessage());
+                return;
+            }
+
+            RQuadtree quad = new RQuadtree(img);
+            int leavesBefore = quad.getLeafCount();
+            quad = variant.applyTo(quad);
+            AVL avl = new AVL(quad);
+            ImagePNG compressedImg = quad.toPNG(avl);
+
+            exchange.getResponseHeaders().set("X-EQM", String.format(Locale.ROOT, "%.4f", ImagePNG.computeEQM(img, compressedImg)));
+            exchange.getResponseHeaders().set("X-Leaves-Before", Integer.toString(leavesBefore));
+            exchange.getResponseHeaders().set("X-Leaves-After", Integer.toString(quad.getLeafCount()));
+            exchange.getResponseHeaders().set("X-Colors", Integer.toString(avl.size()));
+
+            switch (format) {
+                case "tree":
+                    send(exchange, 200, "text/plain; charset=utf-8", quad.toStr().getBytes(StandardCharsets.UTF_8));
+                    break;
+                case "avl":
+                    send(exchange, 200, "text/plain; charset=utf-8", avl.toStr().getBytes(StandardCharsets.UTF_8));
+                    break;
+                default:
+                    ByteArrayOutputStream png = new ByteArrayOutputStream();
+                    compressedImg.write(png);
+                    send(exchange, 200, "image/png", png.toByteArray());
+            }
+        } catch (RuntimeException e) {
+            sendError(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Lit le corps de la requête ; null s'il dépasse MAX_BODY
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            if (out.size() + n > MAX_BODY) {
+                return null;
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) return query;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return query;
+    }
+
+    // Zone "x,y,largeur,hauteur" de l'image source
+    private static Rectangle parseRegion(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("region attend 4 nombres : x,y,largeur,hauteur");
+        }
+        Rectangle region = new Rectangle(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                                         Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+        if (region.x < 0 || region.y < 0 || region.width <= 0 || region.height <= 0) {
+            throw new IllegalArgumentException("region invalide : " + value);
+        }
+        return region;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.awt.Dimension;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Traitement d'un répertoire (ou d'une liste de fichiers) dans une seule JVM
+ * Les images sont traitées par un nombre borné de threads ; le nombre total de pixels
+ * décodés simultanément est plafonné pour limiter la mémoire
+ * Une erreur sur un fichier n'interrompt pas le lot, elle est reportée dans le résumé CSV
+ */
+public class DirectoryBatch {
+
+    private final List<BatchCompressor.Variant> variants;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long maxPixels = 64L * 1024 * 1024;   // Pixels décodés simultanément au plus
+    private String csvFile = "batch-summary.csv";
+    private int[] pipelineThreads;                // Threads par étage si la chaîne est utilisée
+
+    public DirectoryBatch(List<BatchCompressor.Variant> variants) {
+        this.variants = variants;
+    }
+
+    public DirectoryBatch threads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Le nombre de threads doit être > 0");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public DirectoryBatch maxPixels(long maxPixels) {
+        if (maxPixels <= 0) {
+            throw new IllegalArgumentException("Le plafond de pixels doit être > 0");
+        }
+        this.maxPixels = maxPixels;
+        return this;
+    }
+
+    /**
+     * Utilise la chaîne à 4 étages (CompressionPipeline) au lieu d'un thread par image
+     */
+    public DirectoryBatch pipeline(int decodeThreads, int compressThreads, int encodeThreads, int writeThreads) {
+        this.pipelineThreads = new int[] { decodeThreads, compressThreads, encodeThreads, writeThreads };
+        return this;
+    }
+
+    public DirectoryBatch csvFile(String csvFile) {
+        this.csvFile = csvFile;
+        return this;
+    }
+
+    /**
+     * Liste les images à traiter : les fichiers PNG d'un répertoire (hors sorties déjà produites
+     * pour ces variantes), ou les lignes d'un fichier texte (lignes vides et # ignorées)
+     */
+    public List<String> listInputs(String path) throws IOException {
+        File source = new File(path);
+        List<String> inputs = new ArrayList<>();
+        if (source.isDirectory()) {
+            File[] files = source.listFiles();
+            if (files == null) {
+                throw new IOException("Répertoire illisible : " + path);
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                boolean image = name.toLowerCase().endsWith(".png") || RawImage.isRawFile(name);
+                if (file.isFile() && image && !isOutput(name)) {
+                    inputs.add(file.getPath());
+                }
+            }
+        } else {
+            try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        inputs.add(line);
+                    }
+                }
+            }
+        }
+        return inputs;
+    }
+
+    private boolean isOutput(String name) {
+        String lower = name.toLowerCase();
+        for (BatchCompressor.Variant variant : variants) {
+            if (lower.endsWith(variant.suffix() + ".png")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Traite toutes les images et écrit le résumé CSV
+     * La file d'attente est bornée : quand elle est pleine, le thread appelant traite lui-même
+     * une image, ce qui ralentit la soumission
+     * Retourne le nombre de fichiers en erreur
+     */
+    public int run(List<String> inputs) throws IOException {
+        if (pipelineThreads != null) {
+            return runPipeline(inputs);
+        }
+        String[][] rows = new String[inputs.size()][];
+        AtomicInteger failures = new AtomicInteger();
+        Semaphore pixelBudget = new Semaphore((int) Math.min(maxPixels, Integer.MAX_VALUE));
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < inputs.size(); i++) {
+            final int index = i;
+            pool.execute(() -> rows[index] = processFile(inputs.get(index), pixelBudget, failures));
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Traitement interrompu", e);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] != null) {
+                Collections.addAll(lines, rows[i]);
+            } else {
+                // Tâche arrêtée avant d'avoir produit ses lignes : le fichier reste dans le résumé
+                failures.incrementAndGet();
+                lines.add(errorRow(inputs.get(i), "non traité"));
+            }
+        }
+        writeSummary(lines);
+
+        System.out.println(inputs.size() + " fichier(s) traité(s) en " + elapsedMs + " ms, "
+                         + failures.get() + " erreur(s)");
+        System.out.println("Résumé : " + csvFile);
+        return failures.get();
+    }
+
+    /**
+     * Traitement par la chaîne à 4 étages : décodage, compression, rendu/encodage, écriture
+     * Les files bornées entre étages limitent le nombre d'images en cours, et le plafond de pixels
+     * (--max-pixels) la mémoire des images décodées
+     */
+    private int runPipeline(List<String> inputs) throws IOException {
+        int capacity = Math.max(2, 2 * Math.max(pipelineThreads[1], pipelineThreads[2]));
+        CompressionPipeline pipeline = new CompressionPipeline(variants, pipelineThreads[0], pipelineThreads[1],
+                                                               pipelineThreads[2], pipelineThreads[3], capacity)
+            .cache(ResultCache.shared())
+            .maxPixels(maxPixels);
+        long start = System.nanoTime();
+        List<CompressionPipeline.Job> jobs;
+        try {
+            jobs = pipeline.run(inputs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Traitement interrompu", e);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        List<String> lines = new ArrayList<>();
+        Set<Integer> failed = new HashSet<>();
+        for (CompressionPipeline.Job job : jobs) {
+            if (job.error != null) {
+                System.err.println("✗ " + job.inputFile + " : " + job.error);
+                if (failed.add(job.index)) {
+                    lines.add(errorRow(job.inputFile, job.error));
+                }
+            } else {
+                lines.add(resultRow(job.inputFile, job.result, job.result.cached ? 0 : job.decodeNanos,
+                                    job.result.cached ? 0 : job.buildNanos));
+            }
+        }
+        writeSummary(lines);
+
+        System.out.println(inputs.size() + " fichier(s) traité(s) en " + elapsed / 1_000_000 + " ms, "
+                         + failed.size() + " erreur(s)");
+        System.out.print(pipeline.metricsReport(elapsed));
+        System.out.println("Résumé : " + csvFile);
+        return failed.size();
+    }
+
+    private void writeSummary(List<String> lines) throws IOException {
+        try (PrintWriter csv = new PrintWriter(new FileWriter(csvFile))) {
+            csv.println("fichier,variante,largeur,hauteur,octets_original,octets_compresse,rapport_poids,eqm,"
+                      + "feuilles_avant,feuilles_apres,couleurs,decodage_ms,construction_ms,variante_ms,statut");
+            for (String line : lines) {
+                csv.println(line);
+            }
+        }
+    }
+
+    /**
+     * Traite une image et retourne ses lignes CSV (une par variante, ou une ligne d'erreur)
+     */
+    private String[] processFile(String inputFile, Semaphore pixelBudget, AtomicInteger failures) {
+        int permits = 0;
+        try {
+            // Variantes déjà en cache : restaurées sans décodage
+            ResultCache cache = ResultCache.shared();
+            String hash = cache == null ? null : ResultCache.hash(inputFile);
+            BatchCompressor.Result[] cached = BatchCompressor.cachedResults(cache, hash, inputFile, variants);
+            List<BatchCompressor.Variant> missing = BatchCompressor.missing(variants, cached);
+            if (missing.isEmpty()) {
+                System.out.println("✓ " + inputFile + " (cache)");
+                return rows(inputFile, Arrays.asList(cached), 0, 0);
+            }
+
+            Dimension size = PixelSource.readSize(inputFile);
+            long pixels = (long) size.width * size.height;
+            // Une image plus grande que le plafond prend tout le budget, sans bloquer indéfiniment
+            int needed = (int) Math.min(pixels, Math.min(maxPixels, Integer.MAX_VALUE));
+            pixelBudget.acquire(needed);
+            permits = needed;
+
+            long t0 = System.nanoTime();
+            PixelSource img = PixelSource.open(inputFile);
+            long t1 = System.nanoTime();
+            RQuadtree base = new RQuadtree(img);
+            long t2 = System.nanoTime();
+
+            List<BatchCompressor.Result> results = BatchCompressor.merge(cached,
+                BatchCompressor.compress(inputFile, img, base, missing, Runnable::run, cache, hash));
+            System.out.println("✓ " + inputFile);
+            return rows(inputFile, results, t1 - t0, t2 - t1);
+        } catch (Throwable e) {
+            // Toute erreur, y compris OutOfMemoryError sur une très grande image, ne concerne que ce fichier
+            System.err.println("✗ " + inputFile + " : " + e);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            failures.incrementAndGet();
+            return new String[] { errorRow(inputFile, e) };
+        } finally {
+            pixelBudget.release(permits);
+        }
+    }
+
+    private static String[] rows(String inputFile, List<BatchCompressor.Result> results, long decodeNanos, long buildNanos) {
+        String[] rows = new String[results.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = resultRow(inputFile, results.get(i), decodeNanos, buildNanos);
+        }
+        return rows;
+    }
+
+    private static String resultRow(String inputFile, BatchCompressor.Result r, long decodeNanos, long buildNanos) {
+        return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%.2f,%.4f,%d,%d,%d,%d,%d,%d,%s",
+            csvField(inputFile), r.variant, r.width, r.height, r.originalBytes, r.compressedBytes,
+            r.weightRatio(), r.eqm, r.leavesBefore, r.leavesAfter, r.colors,
+            decodeNanos / 1_000_000, buildNanos / 1_000_000, r.elapsedNanos / 1_000_000, r.cached ? "cache" : "ok");
+    }
+
+    private static String errorRow(String inputFile, Throwable e) {
+        return errorRow(inputFile, e.toString());
+    }
+
+    private static String errorRow(String inputFile, String message) {
+        return csvField(inputFile) + ",,,,,,,,,,,,,," + csvField("erreur: " + message);
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -1,19 +1,151 @@
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
 import java.awt.image.WritableRaster;
+import java.util.Iterator;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
-public class ImagePNG
+public class ImagePNG implements PixelSource
 {
     private BufferedImage img; // the bitmap
 
+    // Encoder used by save and write (null: ImageIO), chosen by -Dcompression.png (see PngEncoder)
+    // An invalid setting falls back to the default encoder with a warning (Main rejects it at startup)
+    private static final PngEncoder ENCODER = PngEncoder.fromSystemPropertiesOrDefault();
+
     // Default constructor: load image from file
     public ImagePNG(String filename) throws IOException {
         File fic = new File(filename);
+        CompressionEvents.ImageLoad event = new CompressionEvents.ImageLoad();
+        event.begin();
         img = ImageIO.read(fic);
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.width = img == null ? -1 : img.getWidth();
+            event.height = img == null ? -1 : img.getHeight();
+            event.fileBytes = fic.length();
+            event.commit();
+        }
+    }
+
+    // Constructor loading only a region of the file (null: whole image), subsampled by the given factor
+    // (1: every pixel, 2: one pixel out of 2 in each direction, ...). The region is clipped to the image.
+    // Pixels outside the region, or skipped by subsampling, are never stored in memory
+    public ImagePNG(String filename, Rectangle region, int subsampling) throws IOException {
+        File fic = new File(filename);
+        CompressionEvents.ImageLoad event = new CompressionEvents.ImageLoad();
+        event.begin();
+        try (ImageInputStream in = ImageIO.createImageInputStream(fic)) {
+            img = read(in, region, subsampling, filename);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.width = img.getWidth();
+            event.height = img.getHeight();
+            event.fileBytes = fic.length();
+            event.commit();
+        }
+    }
+
+    // Same as above, from a stream
+    public ImagePNG(InputStream in, Rectangle region, int subsampling) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            img = read(iis, region, subsampling, "stream");
+        }
+    }
+
+    // Decoding of a region with a subsampling factor, through ImageReadParam
+    private static BufferedImage read(ImageInputStream in, Rectangle region, int subsampling, String name) throws IOException {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException("Subsampling factor must be >= 1: " + subsampling);
+        }
+        ImageReader reader = reader(in, name);
+        try {
+            reader.setInput(in, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (region != null) {
+                Rectangle clipped = new Rectangle(reader.getWidth(0), reader.getHeight(0)).intersection(region);
+                if (clipped.isEmpty()) {
+                    throw new IllegalArgumentException("Region " + region.x + "," + region.y + "," + region.width + ","
+                        + region.height + " is outside the image (" + reader.getWidth(0) + "x" + reader.getHeight(0) + ")");
+                }
+                param.setSourceRegion(clipped);
+            }
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    // First reader able to decode the stream
+    private static ImageReader reader(ImageInputStream in, String name) throws IOException {
+        Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("Unsupported image file: " + name);
+        }
+        return readers.next();
+    }
+
+    // Constructor from a stream (e.g. a request body); fails if the data is not a readable image
+    public ImagePNG(InputStream in) throws IOException {
+        img = ImageIO.read(in);
+        if (img == null) {
+            throw new IOException("Unsupported or corrupted image data");
+        }
+    }
+
+    // Constructor for a blank (black) RGB image, to be filled row by row
+    public ImagePNG(int width, int height) {
+        img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    // Constructor from a packed RGB buffer (row-major, width * height entries)
+    public ImagePNG(int width, int height, int[] rgb) {
+        img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(0, 0, width, height, rgb, 0, width);
+    }
+
+    // Constructor for an indexed-color image: pixel i has color palette[indices[i]] (row-major)
+    // The bit depth is the smallest of 1, 2, 4 or 8 that holds the palette (at most 256 colors)
+    public ImagePNG(int width, int height, int[] palette, byte[] indices) {
+        if (palette.length == 0 || palette.length > 256) {
+            throw new IllegalArgumentException("Palette size must be between 1 and 256: " + palette.length);
+        }
+        int bits = palette.length <= 2 ? 1 : palette.length <= 4 ? 2 : palette.length <= 16 ? 4 : 8;
+        IndexColorModel icm = new IndexColorModel(bits, palette.length, palette, 0, false, -1, DataBuffer.TYPE_BYTE);
+        if (bits == 8) {
+            img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, icm);
+            byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            System.arraycopy(indices, 0, data, 0, width * height);
+        } else {
+            // Packed pixels (several per byte): filled row by row through the raster
+            img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, icm);
+            WritableRaster raster = img.getRaster();
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = indices[y * width + x] & 0xFF;
+                }
+                raster.setSamples(0, y, width, 1, 0, row);
+            }
+        }
     }
 
     // Copy constructor
@@ -29,10 +161,57 @@ public class ImagePNG
         return new ImagePNG(this);
     }
 
+    // Name of the encoder used by save and write, with its settings (e.g. "deflate4-up" or "imageio")
+    public static String encoderName() {
+        return ENCODER == null ? "imageio" : ENCODER.toString();
+    }
+
     // Saving the png image to a file
     public void save(String filename) throws IOException {
+        save(filename, ENCODER);
+    }
+
+    // Saving the png image to a file with the given encoder (ImageIO if null or if the image type is not supported)
+    public void save(String filename, PngEncoder encoder) throws IOException {
         File fic = new File(filename);
-        ImageIO.write(img,"png",fic);
+        CompressionEvents.Encode event = new CompressionEvents.Encode();
+        event.begin();
+        if (encoder != null && PngEncoder.supports(img)) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fic), 1 << 16)) {
+                encoder.write(img, out);
+            }
+        } else {
+            ImageIO.write(img,"png",fic);
+        }
+        commitEncode(event, filename);
+    }
+
+    // Writing the png image to a stream (encoding in memory, without touching the disk)
+    public void write(OutputStream out) throws IOException {
+        CompressionEvents.Encode event = new CompressionEvents.Encode();
+        event.begin();
+        if (ENCODER != null && PngEncoder.supports(img)) {
+            ENCODER.write(img, out);
+        } else {
+            ImageIO.write(img, "png", out);
+        }
+        commitEncode(event, "stream");
+    }
+
+    // Ends and records the encode event, if a recording asks for it
+    private void commitEncode(CompressionEvents.Encode event, String target) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.width = img.getWidth();
+            event.height = img.getHeight();
+            event.target = target;
+            event.commit();
+        }
+    }
+
+    // Setting a whole row from packed RGB values (at least width() entries)
+    public void setRow(int y, int[] rgb) {
+        img.setRGB(0, y, img.getWidth(), 1, rgb, 0, img.getWidth());
     }
 
     // Number of pixels in X dimension
@@ -45,6 +224,11 @@ public class ImagePNG
         return img.getHeight();
     }
 
+    // Packed pixel color (0xRRGGBB), without allocating a Color
+    public int rgb(int x, int y) {
+        return img.getRGB(x, y) & 0xFFFFFF;
+    }
+
     // Pixel color getter
     public Color getPixel(int x, int y) {
         return new Color(img.getRGB(x,y));
@@ -55,6 +239,19 @@ public class ImagePNG
         img.setRGB(x,y,col.getRGB());
     }
 
+    // Function (static) that reads the image dimensions from the file header, without decoding the pixels
+    public static Dimension readSize(String filename) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new File(filename))) {
+            ImageReader reader = reader(in, filename);
+            try {
+                reader.setInput(in);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
     // Function (static) that converts a color to an hexadecimal code
     public static String colorToHex(Color col) {
         return Integer.toHexString(col.getRGB()).substring(2);
@@ -67,19 +264,33 @@ public class ImagePNG
     // Function (static) that computes a similarity index between images ref and cpy
     // based on the mean squared error measure (see https://fr.wikipedia.org/wiki/Peak_Signal_to_Noise_Ratio)
     public static double computeEQM(ImagePNG ref, ImagePNG cpy) {
+        return computeEQM((PixelSource) ref, (PixelSource) cpy);
+    }
+
+    // Same measure between any two pixel sources (e.g. a raw raster and a compressed PNG)
+    public static double computeEQM(PixelSource ref, PixelSource cpy) {
+        CompressionEvents.EQM event = new CompressionEvents.EQM();
+        event.begin();
         double w = ref.width(), h = ref.height(),  eqm = 0;
         for( int x = 0 ; x < w ; x++ ) {
             for( int y = 0 ; y < h ; y++ ) {
                 // Pixel (x,y) retrieval
-                Color Cref = ref.getPixel(x,y), Ccpy = cpy.getPixel(x,y);
+                int Cref = ref.rgb(x,y), Ccpy = cpy.rgb(x,y);
                 // Components normalization
-                double Rref = Cref.getRed()/255.0, Gref = Cref.getGreen()/255.0, Bref = Cref.getBlue()/255.0;
-                double Rcpy = Ccpy.getRed()/255.0, Gcpy = Ccpy.getGreen()/255.0, Bcpy = Ccpy.getBlue()/255.0;
+                double Rref = (Cref>>16 & 0xFF)/255.0, Gref = (Cref>>8 & 0xFF)/255.0, Bref = (Cref & 0xFF)/255.0;
+                double Rcpy = (Ccpy>>16 & 0xFF)/255.0, Gcpy = (Ccpy>>8 & 0xFF)/255.0, Bcpy = (Ccpy & 0xFF)/255.0;
                 // squared error contribution
                 eqm += ((Rref-Rcpy)*(Rref-Rcpy) + (Gref-Gcpy)*(Gref-Gcpy) + (Bref-Bcpy)*(Bref-Bcpy))/(3*h*w);
             }
         }
-        return Math.ceil(10000*(1-eqm))/100.0; // percentage rounded to the hundredth
+        double result = Math.ceil(10000*(1-eqm))/100.0; // percentage rounded to the hundredth
+        event.end();
+        if (event.shouldCommit()) {
+            event.pixels = (long) (w * h);
+            event.eqm = result;
+            event.commit();
+        }
+        return result;
     }
 
 }
@@ -0,0 +1,169 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Mesure par étape (décodage, construction, compression, rendu, ...) du temps réel,
+ * du temps CPU et des octets alloués par le thread courant
+ * Désactivée par défaut ; activée par -Dcompression.stats=table ou -Dcompression.stats=json
+ * Désactivée, begin et end ne font rien
+ *
+ * Le temps CPU et les allocations viennent de ThreadMXBean ; -1 s'ils ne sont pas disponibles sur la JVM
+ */
+public class Instrumentation {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Mesures d'une étape terminée
+     */
+    public static class Stage {
+        final String name;
+        final long wallNanos, cpuNanos, allocatedBytes;
+
+        Stage(String name, long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.name = name;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private final String format; // "table", "json", ou null si désactivée
+    private final boolean cpuSupported, allocationSupported;
+    private final List<Stage> stages = new ArrayList<>();
+
+    private String current;
+    private long wallStart, cpuStart, allocatedStart;
+
+    /**
+     * Crée une instrumentation au format donné ("table" ou "json"), ou désactivée si format est null
+     */
+    public Instrumentation(String format) {
+        if (format != null && !format.equals("table") && !format.equals("json")) {
+            throw new IllegalArgumentException("Format de statistiques inconnu : " + format + " (table ou json)");
+        }
+        this.format = format;
+        this.cpuSupported = format != null && enableCpuTime();
+        this.allocationSupported = format != null && enableAllocation();
+    }
+
+    /**
+     * Instrumentation configurée par la propriété système compression.stats
+     */
+    public static Instrumentation fromSystemProperties() {
+        String format = System.getProperty("compression.stats");
+        return new Instrumentation(format == null || format.isEmpty() ? null : format.toLowerCase(Locale.ROOT));
+    }
+
+    public boolean isEnabled() {
+        return format != null;
+    }
+
+    /**
+     * Début d'une étape (termine l'étape en cours s'il y en a une)
+     * Complexité : O(1)
+     */
+    public void begin(String name) {
+        if (format == null) return;
+        if (current != null) end();
+        current = name;
+        cpuStart = cpuTime();
+        allocatedStart = allocatedBytes();
+        wallStart = System.nanoTime();
+    }
+
+    /**
+     * Fin de l'étape en cours
+     * Complexité : O(1)
+     */
+    public void end() {
+        if (format == null || current == null) return;
+        long wall = System.nanoTime() - wallStart;
+        long cpu = cpuSupported ? cpuTime() - cpuStart : -1;
+        long allocated = allocationSupported ? allocatedBytes() - allocatedStart : -1;
+        stages.add(new Stage(current, wall, cpu, allocated));
+        current = null;
+    }
+
+    /**
+     * Étapes mesurées, dans l'ordre
+     */
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Rapport au format demandé ; chaîne vide si désactivée
+     */
+    public String report() {
+        if (format == null) return "";
+        end();
+        return format.equals("json") ? toJson() : toTable();
+    }
+
+    private String toTable() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-12s %11s %11s %14s%n", "étape", "réel ms", "cpu ms", "alloué Kio"));
+        long wall = 0, cpu = 0, allocated = 0;
+        for (Stage stage : stages) {
+            sb.append(tableRow(stage.name, stage.wallNanos, stage.cpuNanos, stage.allocatedBytes));
+            wall += stage.wallNanos;
+            cpu += stage.cpuNanos;
+            allocated += stage.allocatedBytes;
+        }
+        sb.append(tableRow("total", wall, cpuSupported ? cpu : -1, allocationSupported ? allocated : -1));
+        return sb.toString();
+    }
+
+    private static String tableRow(String name, long wallNanos, long cpuNanos, long allocatedBytes) {
+        return String.format(Locale.ROOT, "%-12s %11.3f %11s %14s%n", name, wallNanos / 1e6,
+            cpuNanos < 0 ? "n/d" : String.format(Locale.ROOT, "%.3f", cpuNanos / 1e6),
+            allocatedBytes < 0 ? "n/d" : Long.toString(allocatedBytes / 1024));
+    }
+
+    private String toJson() {
+        StringBuilder sb = new StringBuilder("{\"stages\":[");
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"name\":\"").append(stage.name.replace("\\", "\\\\").replace("\"", "\\\""))
+              .append("\",\"wallNanos\":").append(stage.wallNanos)
+              .append(",\"cpuNanos\":").append(stage.cpuNanos)
+              .append(",\"allocatedBytes\":").append(stage.allocatedBytes).append('}');
+        }
+        return sb.append("]}").append(System.lineSeparator()).toString();
+    }
+
+    // Accès à ThreadMXBean
+
+    private static boolean enableCpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported()) return false;
+        if (!THREADS.isThreadCpuTimeEnabled()) THREADS.setThreadCpuTimeEnabled(true);
+        return true;
+    }
+
+    private static boolean enableAllocation() {
+        try {
+            if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return false;
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (!threads.isThreadAllocatedMemorySupported()) return false;
+            if (!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+            return true;
+        } catch (LinkageError e) {
+            return false; // JVM sans l'extension com.sun.management
+        }
+    }
+
+    private long cpuTime() {
+        return cpuSupported ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private long allocatedBytes() {
+        return allocationSupported
+            ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId())
+            : 0;
+    }
+}
@@ -0,0 +1,413 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * R-quadtree paresseux, appuyé sur des tables de sommes cumulées (images intégrales)
+ * Les tables (somme de R, V, B et du carré de la luminance, nombre de pixels égaux à leur voisin
+ * de gauche et à leur voisin du haut) sont calculées une fois ; la couleur moyenne, la luminance,
+ * la variance de luminance et l'homogénéité de n'importe quel nœud s'en déduisent en O(1)
+ * Les nœuds ne sont créés que lorsqu'un parcours descend jusqu'à eux : les compressions ne gardent
+ * que les nœuds au-dessus des feuilles finales, les rendus à échelle réduite s'arrêtent aux niveaux grossiers
+ * et les parcours en lecture seule (toPNG, toStr) ne conservent pas les nœuds qu'ils créent
+ *
+ * Avant compression, l'arbre a la forme de celui de RQuadtree (zones uniformes fusionnées, pixels hors
+ * de l'image en blanc). La couleur d'un nœud est la moyenne exacte (arrondie) de ses pixels, et non la moyenne
+ * tronquée niveau par niveau de RQuadtree : elle peut en différer de quelques unités par composante
+ * Les compressions descendent depuis la racine, avec leurs propres critères ; elles ne donnent pas
+ * l'arbre de RQuadtree.compressLambda / compressPhi pour le même paramètre, d'où des noms distincts :
+ * - compressStdDev : un nœud devient une feuille si l'écart-type de luminance de ses pixels est ≤ le seuil
+ *   (l'erreur quadratique de luminance de chaque feuille est donc bornée par son carré)
+ * - splitByError : les feuilles d'erreur quadratique maximale (variance × surface) sont découpées en premier,
+ *   tant que le nombre de feuilles ne dépasse pas le maximum demandé
+ */
+public class LazyRQuadtree {
+
+    // Nœud créé à la demande ; fils null : pas encore créés (ou feuille)
+    private static class Node {
+        final int x, y, size;
+        int rgb;            // Couleur moyenne 0xRRGGBB
+        double luminance;   // Luminance moyenne
+        double variance;    // Variance de la luminance des pixels
+        boolean leaf;
+        Node NO, NE, SE, SO;
+
+        Node(int x, int y, int size) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+    }
+
+    private final int width, height;
+    private final int stride;                      // Largeur des tables : width + 1
+    private final long[] red, green, blue;         // Sommes cumulées des composantes
+    private final double[] luminance2;             // Somme cumulée du carré de la luminance
+    private final int[] sameLeft, sameUp;          // Pixels égaux au voisin de gauche / du haut
+    private final Node root;
+
+    /**
+     * Constructeur : calcule les tables de sommes cumulées en une passe sur l'image
+     * Seule la racine est créée ; l'image n'est plus lue ensuite
+     * Complexité : O(n) où n = nombre de pixels de l'image
+     */
+    public LazyRQuadtree(PixelSource img) {
+        this.width = img.width();
+        this.height = img.height();
+        this.stride = width + 1;
+        long cells = (long) stride * (height + 1);
+        if (cells > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image trop grande pour les tables de sommes : " + width + "x" + height);
+        }
+        red = new long[(int) cells];
+        green = new long[(int) cells];
+        blue = new long[(int) cells];
+        luminance2 = new double[(int) cells];
+        sameLeft = new int[(int) cells];
+        sameUp = new int[(int) cells];
+
+        int[] row = new int[width], previous = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = img.rgb(x, y);
+            }
+            long r = 0, g = 0, b = 0;
+            double l2 = 0;
+            int left = 0, up = 0;
+            int above = y * stride, here = (y + 1) * stride;
+            for (int x = 0; x < width; x++) {
+                int c = row[x];
+                int cr = (c >> 16) & 0xFF, cg = (c >> 8) & 0xFF, cb = c & 0xFF;
+                double lum = 0.2126 * (cr / 255.0) + 0.7152 * (cg / 255.0) + 0.0722 * (cb / 255.0);
+                r += cr;
+                g += cg;
+                b += cb;
+                l2 += lum * lum;
+                if (x > 0 && c == row[x - 1]) left++;
+                if (y > 0 && c == previous[x]) up++;
+                red[here + x + 1] = red[above + x + 1] + r;
+                green[here + x + 1] = green[above + x + 1] + g;
+                blue[here + x + 1] = blue[above + x + 1] + b;
+                luminance2[here + x + 1] = luminance2[above + x + 1] + l2;
+                sameLeft[here + x + 1] = sameLeft[above + x + 1] + left;
+                sameUp[here + x + 1] = sameUp[above + x + 1] + up;
+            }
+            int[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+
+        // Calculer la taille nécessaire (puissance de 2), comme RQuadtree
+        int maxDim = Math.max(width, height);
+        int size = 1;
+        while (size < maxDim) {
+            size *= 2;
+        }
+        this.root = node(0, 0, size);
+    }
+
+    // Sommes sur le rectangle [x0, x1[ × [y0, y1[ (inclus dans l'image)
+
+    private long sum(long[] table, int x0, int y0, int x1, int y1) {
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+
+    private double sum(double[] table, int x0, int y0, int x1, int y1) {
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+
+    private int sum(int[] table, int x0, int y0, int x1, int y1) {
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+
+    /**
+     * Crée le nœud (x, y, size) à partir des tables : moyennes, variance et homogénéité
+     * Les pixels hors de l'image comptent en blanc (luminance 1), comme dans RQuadtree
+     * Complexité : O(1)
+     */
+    private Node node(int x, int y, int size) {
+        Node node = new Node(x, y, size);
+        long area = (long) size * size;
+        int x1 = (int) Math.min((long) x + size, width), y1 = (int) Math.min((long) y + size, height);
+        long inside = x < width && y < height ? (long) (x1 - x) * (y1 - y) : 0;
+        long outside = area - inside;
+
+        long r = 255 * outside, g = 255 * outside, b = 255 * outside;
+        double l2 = outside;
+        boolean uniform = true;
+        if (inside > 0) {
+            r += sum(red, x, y, x1, y1);
+            g += sum(green, x, y, x1, y1);
+            b += sum(blue, x, y, x1, y1);
+            l2 += sum(luminance2, x, y, x1, y1);
+            // Uniforme : chaque pixel est égal à ses voisins de gauche et du haut dans la zone
+            uniform = sum(sameLeft, x + 1, y, x1, y1) == (x1 - x - 1) * (y1 - y)
+                   && sum(sameUp, x, y + 1, x1, y1) == (x1 - x) * (y1 - y - 1);
+            if (uniform && outside > 0) {
+                uniform = sum(red, x, y, x + 1, y + 1) == 255 && sum(green, x, y, x + 1, y + 1) == 255
+                       && sum(blue, x, y, x + 1, y + 1) == 255;
+            }
+        }
+
+        node.rgb = (int) ((r + area / 2) / area) << 16 | (int) ((g + area / 2) / area) << 8 | (int) ((b + area / 2) / area);
+        node.luminance = (0.2126 * r + 0.7152 * g + 0.0722 * b) / (255.0 * area);
+        node.variance = uniform ? 0 : Math.max(0, l2 / area - node.luminance * node.luminance);
+        node.leaf = size == 1 || uniform;
+        return node;
+    }
+
+    /**
+     * Fils d'un nœud interne (0 = NO, 1 = NE, 2 = SE, 3 = SO), créé s'il n'existe pas encore
+     * et conservé si keep ; un parcours en lecture seule ne conserve pas les nœuds qu'il crée
+     * Complexité : O(1)
+     */
+    private Node child(Node node, int quadrant, boolean keep) {
+        Node child = quadrant == 0 ? node.NO : quadrant == 1 ? node.NE : quadrant == 2 ? node.SE : node.SO;
+        if (child == null) {
+            int half = node.size / 2;
+            child = node(node.x + (quadrant == 1 || quadrant == 2 ? half : 0), node.y + (quadrant >= 2 ? half : 0), half);
+            if (keep) {
+                switch (quadrant) {
+                    case 0: node.NO = child; break;
+                    case 1: node.NE = child; break;
+                    case 2: node.SE = child; break;
+                    default: node.SO = child; break;
+                }
+            }
+        }
+        return child;
+    }
+
+    // Le nœud devient une feuille : ses fils sont libérés
+    private static void collapse(Node node) {
+        node.leaf = true;
+        node.NO = node.NE = node.SE = node.SO = null;
+    }
+
+    /**
+     * Compression à qualité contrôlée, de la racine vers les feuilles : un nœud dont l'écart-type
+     * de luminance est ≤ maxDeviation (0 à 255) devient une feuille, sans descendre plus bas
+     * Ce n'est pas le critère Lambda de RQuadtree (écart maximal entre les luminances des fils)
+     * Complexité : O(k) où k = nombre de nœuds au-dessus des feuilles obtenues
+     */
+    public void compressStdDev(double maxDeviation) {
+        if (maxDeviation < 0 || maxDeviation > 255) {
+            throw new IllegalArgumentException("L'écart-type maximal doit être entre 0 et 255");
+        }
+        double normalized = maxDeviation / 255.0;
+        compressStdDevRecursive(root, normalized * normalized);
+    }
+
+    private void compressStdDevRecursive(Node node, double maxVariance) {
+        if (node.leaf) return;
+        if (node.variance <= maxVariance) {
+            collapse(node);
+            return;
+        }
+        for (int q = 0; q < 4; q++) {
+            compressStdDevRecursive(child(node, q, true), maxVariance);
+        }
+    }
+
+    /**
+     * Compression à poids contrôlé, de la racine vers les feuilles : la feuille courante
+     * d'erreur quadratique maximale (variance × surface) est découpée en 4 tant que le nombre
+     * de feuilles reste ≤ maxLeaves ; les feuilles restantes deviennent les feuilles de l'arbre
+     * Ce n'est pas la fusion ascendante Phi de RQuadtree : l'arbre obtenu peut en différer
+     * Égalités départagées par l'ordre préfixe (NO, NE, SE, SO)
+     * Complexité : O(f log f) où f = maxLeaves
+     */
+    public void splitByError(int maxLeaves) {
+        if (maxLeaves <= 0) {
+            throw new IllegalArgumentException("Le nombre maximal de feuilles doit être > 0");
+        }
+        PriorityQueue<Node> heap = new PriorityQueue<>((a, b) -> {
+            int cmp = Double.compare(b.variance * b.size * b.size, a.variance * a.size * a.size);
+            return cmp != 0 ? cmp : Long.compareUnsigned(preorderKey(a), preorderKey(b));
+        });
+        if (!root.leaf) {
+            heap.add(root);
+        }
+        long leaves = 1;
+        while (!heap.isEmpty() && leaves + 3 <= maxLeaves) {
+            Node node = heap.poll();
+            leaves += 3;
+            for (int q = 0; q < 4; q++) {
+                Node child = child(node, q, true);
+                if (!child.leaf) {
+                    heap.add(child);
+                }
+            }
+        }
+        for (Node node : heap) {
+            collapse(node);
+        }
+    }
+
+    // Rang d'un nœud dans l'ordre préfixe (voir LinearQuadtree.candidate)
+    private static long preorderKey(Node node) {
+        long code = LinearQuadtree.morton(node.x, node.y);
+        return code ^ ((code >>> 1) & 0x5555555555555555L);
+    }
+
+    /**
+     * Convertit l'arbre en ImagePNG
+     * Complexité : O(n) où n = nombre de pixels
+     */
+    public ImagePNG toPNG() {
+        int[] rgb = new int[width * height];
+        fillImage(root, rgb);
+        return new ImagePNG(width, height, rgb);
+    }
+
+    private void fillImage(Node node, int[] rgb) {
+        if (node.x >= width || node.y >= height) return;
+        if (node.leaf) {
+            int xEnd = Math.min(node.x + node.size, width);
+            int yEnd = Math.min(node.y + node.size, height);
+            for (int j = node.y; j < yEnd; j++) {
+                Arrays.fill(rgb, j * width + node.x, j * width + xEnd, node.rgb);
+            }
+            return;
+        }
+        for (int q = 0; q < 4; q++) {
+            fillImage(child(node, q, false), rgb);
+        }
+    }
+
+    /**
+     * Rendu aux dimensions demandées (vignette), comme RQuadtree.toPNG(l, h) :
+     * la descente s'arrête dès qu'un nœud ne couvre pas plus d'un pixel de sortie,
+     * les niveaux plus fins ne sont jamais créés
+     * Complexité : O(p) où p = targetWidth × targetHeight
+     */
+    public ImagePNG toPNG(int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            throw new IllegalArgumentException("Les dimensions de sortie doivent être > 0");
+        }
+        int[] rgb = new int[targetWidth * targetHeight];
+        renderSamples(root, 0, 0, width, height, rgb, targetWidth, targetHeight,
+                      RQuadtree.footprint(width, height, targetWidth, targetHeight));
+        return new ImagePNG(targetWidth, targetHeight, rgb);
+    }
+
+    /**
+     * Rendu d'une fenêtre (vx, vy, vw, vh) dans un tampon fourni, comme RQuadtree.render
+     * Complexité : O(p) où p = outW × outH
+     */
+    public void render(int vx, int vy, int vw, int vh, int[] out, int outW, int outH) {
+        if (vw <= 0 || vh <= 0 || outW <= 0 || outH <= 0) {
+            throw new IllegalArgumentException("La fenêtre et la sortie doivent avoir des dimensions > 0");
+        }
+        if (out.length < outW * outH) {
+            throw new IllegalArgumentException("Tampon trop petit : " + out.length + " < " + outW * outH);
+        }
+
+        // Les échantillons hors du carré racine ne sont couverts par aucun nœud
+        int i0 = RQuadtree.firstSample(-(long) vx, vw, outW), i1 = RQuadtree.firstSample((long) root.size - vx, vw, outW);
+        int j0 = RQuadtree.firstSample(-(long) vy, vh, outH), j1 = RQuadtree.firstSample((long) root.size - vy, vh, outH);
+        int white = Color.WHITE.getRGB();
+        for (int j = 0; j < outH; j++) {
+            if (j < j0 || j >= j1 || i0 >= i1) {
+                Arrays.fill(out, j * outW, (j + 1) * outW, white);
+            } else {
+                Arrays.fill(out, j * outW, j * outW + i0, white);
+                Arrays.fill(out, j * outW + i1, (j + 1) * outW, white);
+            }
+        }
+
+        renderSamples(root, vx, vy, vw, vh, out, outW, outH, RQuadtree.footprint(vw, vh, outW, outH));
+    }
+
+    // Même échantillonnage que RQuadtree.renderSamples
+    private void renderSamples(Node node, int vx, int vy, int vw, int vh, int[] out, int outW, int outH, int stop) {
+        int i0 = RQuadtree.firstSample((long) node.x - vx, vw, outW), i1 = RQuadtree.firstSample((long) node.x + node.size - vx, vw, outW);
+        int j0 = RQuadtree.firstSample((long) node.y - vy, vh, outH), j1 = RQuadtree.firstSample((long) node.y + node.size - vy, vh, outH);
+        if (i0 >= i1 || j0 >= j1) {
+            return; // Aucun échantillon dans ce nœud
+        }
+
+        if (node.leaf || node.size <= stop) {
+            int rgb = 0xFF000000 | node.rgb;
+            for (int j = j0; j < j1; j++) {
+                Arrays.fill(out, j * outW + i0, j * outW + i1, rgb);
+            }
+            return;
+        }
+
+        for (int q = 0; q < 4; q++) {
+            renderSamples(child(node, q, false), vx, vy, vw, vh, out, outW, outH, stop);
+        }
+    }
+
+    /**
+     * Couleur du pixel (x, y), obtenue en descendant jusqu'à la feuille qui le contient
+     * Complexité : O(h) où h = profondeur de l'arbre
+     */
+    public Color colorAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IndexOutOfBoundsException("Pixel hors de l'image : (" + x + ", " + y + ")");
+        }
+        Node node = root;
+        while (!node.leaf) {
+            int half = node.size / 2;
+            boolean east = x >= node.x + half;
+            boolean south = y >= node.y + half;
+            node = child(node, south ? (east ? 2 : 3) : (east ? 1 : 0), false);
+        }
+        return new Color(node.rgb);
+    }
+
+    /**
+     * Produit la représentation textuelle, au format de RQuadtree.toStr
+     * Complexité : O(m) où m = nombre de nœuds
+     */
+    public String toStr() {
+        StringBuilder sb = new StringBuilder();
+        toStrRecursive(root, sb);
+        return sb.toString();
+    }
+
+    private void toStrRecursive(Node node, StringBuilder sb) {
+        if (node.leaf) {
+            sb.append(ImagePNG.colorToHex(new Color(node.rgb)));
+            return;
+        }
+        sb.append("(");
+        for (int q = 0; q < 4; q++) {
+            if (q > 0) sb.append(" ");
+            toStrRecursive(child(node, q, false), sb);
+        }
+        sb.append(")");
+    }
+
+    /**
+     * Compte le nombre de feuilles
+     * Complexité : O(m) où m = nombre de nœuds
+     */
+    public int getLeafCount() {
+        return countLeaves(root);
+    }
+
+    private int countLeaves(Node node) {
+        if (node.leaf) return 1;
+        int count = 0;
+        for (int q = 0; q < 4; q++) {
+            count += countLeaves(child(node, q, false));
+        }
+        return count;
+    }
+
+    /**
+     * Nombre de nœuds effectivement conservés en mémoire
+     * Complexité : O(k) où k = nombre de nœuds conservés
+     */
+    public int getMaterializedNodeCount() {
+        return countMaterialized(root);
+    }
+
+    private static int countMaterialized(Node node) {
+        if (node == null) return 0;
+        return 1 + countMaterialized(node.NO) + countMaterialized(node.NE) + countMaterialized(node.SE) + countMaterialized(node.SO);
+    }
+}
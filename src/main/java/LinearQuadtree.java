@@ -0,0 +1,452 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Représentation linéaire (sans pointeurs) d'un R-quadtree
+ * Les feuilles sont stockées dans des tableaux triés par code de Morton (ordre Z) :
+ * (code de localisation, niveau, couleur, luminance)
+ * Les compressions Lambda et Phi produisent exactement le même arbre que RQuadtree
+ */
+public class LinearQuadtree {
+
+    private static final int MAGIC = 0x4C515431; // "LQT1"
+    private static final int HEADER_SIZE = 20;   // magic, largeur, hauteur, profondeur, nombre de feuilles
+
+    private long[] codes;         // Code de Morton du coin supérieur gauche de chaque feuille
+    private byte[] levels;        // Niveau de la feuille (taille du carré = 2^niveau)
+    private int[] colors;         // Couleur RGB de la feuille
+    private double[] luminances;  // Luminance de la feuille
+    private int count;            // Nombre de feuilles
+    private int width, height;
+    private int depth;            // Niveau de la racine (taille = 2^depth)
+
+    /**
+     * Constructeur : construit le quadtree linéaire par parcours en ordre Z de l'image
+     * Complexité : O(n) où n = nombre de pixels de l'image
+     */
+    public LinearQuadtree(ImagePNG img) {
+        this.width = img.width();
+        this.height = img.height();
+
+        int maxDim = Math.max(width, height);
+        this.depth = 0;
+        while ((1 << depth) < maxDim) {
+            depth++;
+        }
+
+        int capacity = Math.max(16, (int) Math.min((long) width * height, 1 << 20));
+        this.codes = new long[capacity];
+        this.levels = new byte[capacity];
+        this.colors = new int[capacity];
+        this.luminances = new double[capacity];
+
+        buildZOrder(img, 0, 0, depth);
+    }
+
+    private LinearQuadtree(int width, int height, int depth, int count) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.count = count;
+        this.codes = new long[count];
+        this.levels = new byte[count];
+        this.colors = new int[count];
+        this.luminances = new double[count];
+    }
+
+    /**
+     * Construction récursive en ordre Z (NO, NE, SO, SE)
+     * Les 4 fils homogènes sont fusionnés dès qu'ils sont ajoutés, comme dans RQuadtree
+     * Complexité : O(n) où n = nombre de pixels dans la région
+     */
+    private void buildZOrder(ImagePNG img, int x, int y, int level) {
+        if (level == 0) {
+            if (x < width && y < height) {
+                Color c = img.getPixel(x, y);
+                append(morton(x, y), 0, c.getRGB() & 0xFFFFFF, luminance(c));
+            } else {
+                // Pixel hors de l'image -> couleur par défaut (blanc)
+                append(morton(x, y), 0, 0xFFFFFF, 1.0);
+            }
+            return;
+        }
+
+        int start = count;
+        int half = 1 << (level - 1);
+        buildZOrder(img, x, y, level - 1);
+        buildZOrder(img, x + half, y, level - 1);
+        buildZOrder(img, x, y + half, level - 1);
+        buildZOrder(img, x + half, y + half, level - 1);
+
+        // Les 4 fils sont des feuilles s'ils n'ont produit qu'une entrée chacun
+        if (count == start + 4 && levels[start] == level - 1 && levels[start + 1] == level - 1
+                && levels[start + 2] == level - 1 && levels[start + 3] == level - 1) {
+            int c = colors[start];
+            if (c == colors[start + 1] && c == colors[start + 2] && c == colors[start + 3]) {
+                mergeInto(start, start, start + 1, start + 3, start + 2);
+                count = start + 1;
+            }
+        }
+    }
+
+    /**
+     * Ajoute une feuille en fin de tableau
+     * Complexité : O(1) amorti
+     */
+    private void append(long code, int level, int rgb, double lum) {
+        if (count == codes.length) {
+            int capacity = codes.length * 2;
+            codes = Arrays.copyOf(codes, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            luminances = Arrays.copyOf(luminances, capacity);
+        }
+        codes[count] = code;
+        levels[count] = (byte) level;
+        colors[count] = rgb;
+        luminances[count] = lum;
+        count++;
+    }
+
+    /**
+     * Remplace l'entrée dst par la fusion des 4 fils (indices donnés dans l'ordre NO, NE, SE, SO)
+     * Même calcul que RQuadtree.calculateAverageColor
+     * Complexité : O(1)
+     */
+    private void mergeInto(int dst, int no, int ne, int se, int so) {
+        int r = red(colors[no]) + red(colors[ne]) + red(colors[se]) + red(colors[so]);
+        int g = green(colors[no]) + green(colors[ne]) + green(colors[se]) + green(colors[so]);
+        int b = blue(colors[no]) + blue(colors[ne]) + blue(colors[se]) + blue(colors[so]);
+        double lum = 0;
+        lum += luminances[no];
+        lum += luminances[ne];
+        lum += luminances[se];
+        lum += luminances[so];
+
+        codes[dst] = codes[no];
+        levels[dst] = (byte) (levels[no] + 1);
+        colors[dst] = ((r / 4) << 16) | ((g / 4) << 8) | (b / 4);
+        luminances[dst] = lum / 4;
+    }
+
+    /**
+     * Vérifie si les 4 entrées à partir de i sont les 4 fils (ordre Z) d'un même nœud
+     * Complexité : O(1)
+     */
+    private boolean isSiblingGroup(int i) {
+        int level = levels[i];
+        if (level >= depth) return false;
+        long step = 1L << (2 * level);
+        if ((codes[i] & (4 * step - 1)) != 0) return false;
+        return levels[i + 1] == level && levels[i + 2] == level && levels[i + 3] == level
+            && codes[i + 1] == codes[i] + step
+            && codes[i + 2] == codes[i] + 2 * step
+            && codes[i + 3] == codes[i] + 3 * step;
+    }
+
+    /**
+     * Compression à qualité contrôlée (Lambda)
+     * Une seule passe sur le tableau utilisé comme pile : quatre fils consécutifs
+     * sont fusionnés dès que le dernier d'entre eux est devenu une feuille
+     * Complexité : O(m) où m = nombre de feuilles
+     */
+    public void compressLambda(double lambda) {
+        if (lambda < 0 || lambda > 255) {
+            throw new IllegalArgumentException("Lambda doit être entre 0 et 255");
+        }
+        lambda = lambda / 255.0; // Normaliser lambda
+
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            codes[top] = codes[i];
+            levels[top] = levels[i];
+            colors[top] = colors[i];
+            luminances[top] = luminances[i];
+            top++;
+
+            while (top >= 4 && isSiblingGroup(top - 4)) {
+                int no = top - 4, ne = top - 3, so = top - 2, se = top - 1;
+                double avgLum = 0;
+                avgLum += luminances[no];
+                avgLum += luminances[ne];
+                avgLum += luminances[se];
+                avgLum += luminances[so];
+                avgLum /= 4;
+
+                double maxDiff = 0;
+                maxDiff = Math.max(maxDiff, Math.abs(luminances[no] - avgLum));
+                maxDiff = Math.max(maxDiff, Math.abs(luminances[ne] - avgLum));
+                maxDiff = Math.max(maxDiff, Math.abs(luminances[se] - avgLum));
+                maxDiff = Math.max(maxDiff, Math.abs(luminances[so] - avgLum));
+
+                if (maxDiff > lambda) break;
+                mergeInto(no, no, ne, se, so);
+                top -= 3;
+            }
+        }
+        count = top;
+    }
+
+    /**
+     * Compression à poids contrôlé (Phi)
+     * Les candidats (4 fils feuilles) sont gérés dans un tas trié par variance puis par ordre préfixe,
+     * ce qui reproduit le choix de RQuadtree.findBestNodeToMerge
+     * Les entrées fusionnées sont marquées mortes puis retirées en une passe de compactage
+     * Complexité : O(m log m) où m = nombre de feuilles
+     */
+    public void compressPhi(int phi) {
+        if (phi <= 0) {
+            throw new IllegalArgumentException("Phi doit être > 0");
+        }
+        if (count <= phi) return;
+
+        boolean[] dead = new boolean[count];
+        PriorityQueue<long[]> heap = new PriorityQueue<>((a, b) -> {
+            int cmp = Double.compare(Double.longBitsToDouble(a[0]), Double.longBitsToDouble(b[0]));
+            return cmp != 0 ? cmp : Long.compareUnsigned(a[1], b[1]);
+        });
+
+        for (int i = 0; i + 3 < count; i++) {
+            if (isSiblingGroup(i)) {
+                heap.add(candidate(i, i + 1, i + 2, i + 3));
+            }
+        }
+
+        int alive = count;
+        while (alive > phi && !heap.isEmpty()) {
+            long[] best = heap.poll();
+            int no = (int) best[2], ne = (int) best[3], so = (int) best[4], se = (int) best[5];
+            mergeInto(no, no, ne, se, so);
+            dead[ne] = dead[so] = dead[se] = true;
+            alive -= 3;
+
+            // Le parent devient candidat si ses 4 fils sont désormais des feuilles
+            int level = levels[no];
+            if (level < depth) {
+                long step = 1L << (2 * level);
+                long base = codes[no] & ~(4 * step - 1);
+                int[] siblings = new int[4];
+                boolean allLeaves = true;
+                for (int k = 0; k < 4 && allLeaves; k++) {
+                    int idx = Arrays.binarySearch(codes, 0, count, base + k * step);
+                    allLeaves = idx >= 0 && !dead[idx] && levels[idx] == level;
+                    siblings[k] = idx;
+                }
+                if (allLeaves) {
+                    heap.add(candidate(siblings[0], siblings[1], siblings[2], siblings[3]));
+                }
+            }
+        }
+
+        // Compactage : retirer les entrées mortes
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            if (dead[i]) continue;
+            codes[top] = codes[i];
+            levels[top] = levels[i];
+            colors[top] = colors[i];
+            luminances[top] = luminances[i];
+            top++;
+        }
+        count = top;
+    }
+
+    /**
+     * Crée une entrée du tas : (variance, clé d'ordre préfixe, indices NO, NE, SO, SE)
+     * Même calcul que RQuadtree.calculateLuminanceVariance
+     * Complexité : O(1)
+     */
+    private long[] candidate(int no, int ne, int so, int se) {
+        double avg = 0;
+        avg += luminances[no];
+        avg += luminances[ne];
+        avg += luminances[se];
+        avg += luminances[so];
+        avg /= 4;
+
+        double sum = 0;
+        sum += Math.pow(luminances[no] - avg, 2);
+        sum += Math.pow(luminances[ne] - avg, 2);
+        sum += Math.pow(luminances[se] - avg, 2);
+        sum += Math.pow(luminances[so] - avg, 2);
+
+        // L'ordre préfixe de RQuadtree visite NO, NE, SE, SO : on échange les chiffres 2 et 3 du code
+        long code = codes[no];
+        long preorder = code ^ ((code >>> 1) & 0x5555555555555555L);
+        return new long[] { Double.doubleToLongBits(sum / 4), preorder, no, ne, so, se };
+    }
+
+    /**
+     * Couleur du pixel (x, y) par recherche dichotomique sur les codes de Morton
+     * Complexité : O(log m) où m = nombre de feuilles
+     */
+    public Color colorAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IndexOutOfBoundsException("Pixel hors de l'image : (" + x + ", " + y + ")");
+        }
+        int idx = Arrays.binarySearch(codes, 0, count, morton(x, y));
+        if (idx < 0) {
+            idx = -idx - 2; // Dernière feuille dont le code est inférieur
+        }
+        return new Color(colors[idx]);
+    }
+
+    /**
+     * Convertit le quadtree linéaire en ImagePNG
+     * Complexité : O(n) où n = nombre de pixels
+     */
+    public ImagePNG toPNG() {
+        int[] rgb = new int[width * height];
+        for (int i = 0; i < count; i++) {
+            int size = 1 << levels[i];
+            int x0 = decodeX(codes[i]), y0 = decodeY(codes[i]);
+            if (x0 >= width || y0 >= height) continue; // Feuille entièrement dans le remplissage
+            int x1 = Math.min(x0 + size, width), y1 = Math.min(y0 + size, height);
+            for (int y = y0; y < y1; y++) {
+                Arrays.fill(rgb, y * width + x0, y * width + x1, colors[i]);
+            }
+        }
+        return new ImagePNG(width, height, rgb);
+    }
+
+    /**
+     * Produit la même représentation textuelle que RQuadtree.toStr
+     * Complexité : O(m log m) où m = nombre de feuilles
+     */
+    public String toStr() {
+        StringBuilder sb = new StringBuilder();
+        toStrRecursive(0L, depth, sb);
+        return sb.toString();
+    }
+
+    private void toStrRecursive(long base, int level, StringBuilder sb) {
+        int idx = lowerBound(base);
+        if (idx < count && codes[idx] == base && levels[idx] == level) {
+            sb.append(ImagePNG.colorToHex(new Color(colors[idx])));
+            return;
+        }
+
+        long step = 1L << (2 * (level - 1));
+        sb.append("(");
+        toStrRecursive(base, level - 1, sb);             // NO
+        sb.append(" ");
+        toStrRecursive(base + step, level - 1, sb);      // NE
+        sb.append(" ");
+        toStrRecursive(base + 3 * step, level - 1, sb);  // SE
+        sb.append(" ");
+        toStrRecursive(base + 2 * step, level - 1, sb);  // SO
+        sb.append(")");
+    }
+
+    private int lowerBound(long code) {
+        int idx = Arrays.binarySearch(codes, 0, count, code);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    /**
+     * Retourne le nombre de feuilles
+     */
+    public int getLeafCount() {
+        return count;
+    }
+
+    /**
+     * Sauvegarde le tableau de feuilles dans un fichier binaire
+     * Format : en-tête (magic, largeur, hauteur, profondeur, nombre) puis les 4 tableaux à la suite
+     * Complexité : O(m) où m = nombre de feuilles
+     */
+    public void save(String filename) throws IOException {
+        long fileSize = HEADER_SIZE + (long) count * (8 + 1 + 4 + 8);
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(fileSize);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.putInt(MAGIC).putInt(width).putInt(height).putInt(depth).putInt(count);
+            buffer.asLongBuffer().put(codes, 0, count);
+            buffer.position(buffer.position() + count * 8);
+            buffer.put(levels, 0, count);
+            buffer.asIntBuffer().put(colors, 0, count);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asDoubleBuffer().put(luminances, 0, count);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Charge un quadtree linéaire sauvegardé par save() en projetant le fichier en mémoire
+     * Complexité : O(m) où m = nombre de feuilles
+     */
+    public static LinearQuadtree load(String filename) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Fichier de quadtree linéaire invalide : " + filename);
+            }
+            int width = buffer.getInt(), height = buffer.getInt(), depth = buffer.getInt(), count = buffer.getInt();
+            LinearQuadtree quad = new LinearQuadtree(width, height, depth, count);
+
+            ByteBuffer data = buffer.slice();
+            data.asLongBuffer().get(quad.codes);
+            data.position(count * 8);
+            data.get(quad.levels);
+            data.asIntBuffer().get(quad.colors);
+            data.position(data.position() + count * 4);
+            data.asDoubleBuffer().get(quad.luminances);
+            return quad;
+        }
+    }
+
+    // Méthodes utilitaires
+
+    // Calcule la luminance selon la formule donnée (même calcul que RQuadtree.Node)
+    private static double luminance(Color color) {
+        double R = color.getRed() / 255.0;
+        double G = color.getGreen() / 255.0;
+        double B = color.getBlue() / 255.0;
+        return 0.2126 * R + 0.7152 * G + 0.0722 * B;
+    }
+
+    private static int red(int rgb) { return (rgb >> 16) & 0xFF; }
+    private static int green(int rgb) { return (rgb >> 8) & 0xFF; }
+    private static int blue(int rgb) { return rgb & 0xFF; }
+
+    // Entrelace les bits de x (rangs pairs) et de y (rangs impairs)
+    static long morton(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    private static int compact(long x) {
+        x &= 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) x;
+    }
+
+    static int decodeX(long code) {
+        return compact(code);
+    }
+
+    static int decodeY(long code) {
+        return compact(code >>> 1);
+    }
+}
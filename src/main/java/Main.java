@@ -12,12 +12,60 @@ public class Main {
     
     private static Scanner scanner = new Scanner(System.in);
     private static RQuadtree currentQuadtree = null;
+    private static RQuadtree currentBase = null;   // Arbre d'origine (non compressé) de l'image chargée
     private static AVL currentAVL = null;
     private static String currentImageName = null;
+    // Arbres déjà construits (mémoire estimée bornée, par défaut un quart du tas)
+    private static QuadtreeCache treeCache = new QuadtreeCache(
+        Long.getLong("compression.treeCache.maxBytes", Runtime.getRuntime().maxMemory() / 4));
     
     public static void main(String[] args) {
+        // Réglages de l'encodeur PNG vérifiés avant tout traitement (faute de frappe dans -Dcompression.png...)
+        try {
+            PngEncoder.fromSystemProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Erreur : " + e.getMessage());
+            System.exit(1);
+        }
+        
+        // Mode répertoire : java Main --dir <dossier|liste.txt> <Lambda|Phi> <p1,...> [options]
+        if (args.length > 0 && args[0].equals("--dir")) {
+            try {
+                System.exit(executeDirectoryMode(args) == 0 ? 0 : 2);
+            } catch (Exception e) {
+                System.err.println("Erreur : " + e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        
+        // Mode serveur : java Main --serve [--port N] [--threads N]
+        if (args.length > 0 && args[0].equals("--serve")) {
+            try {
+                executeServerMode(args);
+            } catch (Exception e) {
+                System.err.println("Erreur : " + e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        
+        // Mode tuiles : java Main --tiled <image> <Lambda|Phi> <paramètre> [sortie.ppm|.pam|.raw]
+        if (args.length > 0 && args[0].equals("--tiled")) {
+            try {
+                executeTiledMode(args);
+            } catch (Exception e) {
+                System.err.println("Erreur : " + e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
+        
         // Mode non-interactif si arguments fournis
-        if (args.length == 3) {
+        if (args.length == 3 && !args[2].contains(",")) {
             try {
                 executeNonInteractiveMode(args[0], args[1], args[2]);
             } catch (Exception e) {
@@ -26,9 +74,24 @@ public class Main {
                 System.exit(1);
             }
             return;
-        } else if (args.length > 0 && args.length != 3) {
+        } else if (args.length >= 3 && args.length % 2 == 1) {
+            // Plusieurs variantes : Lambda 10,20 Phi 64,256 ...
+            try {
+                executeBatchMode(args[0], BatchCompressor.Variant.parse(args, 1));
+            } catch (Exception e) {
+                System.err.println("Erreur : " + e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        } else if (args.length > 0) {
             System.out.println("Usage : java Main <fichier.png> <Lambda|Phi> <paramètre>");
+            System.out.println("        java Main <fichier.png> <Lambda|Phi> <p1,p2,...> [<Lambda|Phi> <p1,p2,...>]");
             System.out.println("Exemple : java Main images/i.png Lambda 20");
+            System.out.println("        java Main --dir <dossier|liste.txt> <Lambda|Phi> <p1,p2,...> [--threads N] [--max-pixels P] [--csv fichier.csv] [--pipeline D,C,E,W]");
+            System.out.println("        java Main --serve [--port N] [--threads N]");
+            System.out.println("        java Main --tiled <image> <Lambda|Phi> <paramètre> [sortie.ppm|.pam|.raw]");
+            System.out.println("Exemple : java Main images/i.png Lambda 10,20,40,80 Phi 64,256,1024");
             System.exit(1);
         }
         
@@ -112,17 +175,19 @@ public class Main {
     
     /**
      * 1. Construire R-quadtree depuis une image PNG
+     * Un arbre déjà construit pour ce fichier (non modifié depuis) est repris du cache
      */
     private static void buildQuadtreeFromImage() throws IOException {
         String filename = readString("Nom du fichier PNG : ");
         
-        ImagePNG img = new ImagePNG(filename);
-        currentQuadtree = new RQuadtree(img);
+        currentBase = treeCache.get(filename);
+        currentQuadtree = currentBase.fork();
         currentImageName = filename;
         
-        System.out.println("\nR-quadtree construit avec succès !");
-        System.out.println("Dimensions : " + img.width() + "x" + img.height());
+        System.out.println("\nR-quadtree " + (treeCache.lastHit() ? "repris du cache" : "construit avec succès") + " !");
+        System.out.println("Dimensions : " + currentBase.getWidth() + "x" + currentBase.getHeight());
         System.out.println("Nombre de feuilles : " + currentQuadtree.getLeafCount());
+        System.out.println("Cache : " + treeCache.size() + " arbre(s), ~" + treeCache.estimatedBytes() / 1024 + " Kio");
     }
     
     /**
@@ -136,12 +201,13 @@ public class Main {
         }
         
         double lambda = readDouble("Valeur de Lambda (0-255) : ");
-        int leafCountBefore = currentQuadtree.getLeafCount();
+        int leafCountBefore = currentBase.getLeafCount();
         
-        currentQuadtree.compressLambda(lambda);
+        // Toujours à partir de l'arbre d'origine : essayer un autre paramètre ne demande pas de recharger l'image
+        currentQuadtree = currentBase.withLambda(lambda);
         int leafCountAfter = currentQuadtree.getLeafCount();
         
-        System.out.println("\n Compression Lambda appliquée !");
+        System.out.println("\n Compression Lambda appliquée (sur l'arbre d'origine) !");
         System.out.println("  Lambda = " + lambda);
         System.out.println("  Feuilles avant : " + leafCountBefore);
         System.out.println("  Feuilles après : " + leafCountAfter);
@@ -160,12 +226,12 @@ public class Main {
         }
         
         int phi = readInt("Valeur de Phi (nombre max de feuilles) : ");
-        int leafCountBefore = currentQuadtree.getLeafCount();
+        int leafCountBefore = currentBase.getLeafCount();
         
-        currentQuadtree.compressPhi(phi);
+        currentQuadtree = currentBase.withPhi(phi);
         int leafCountAfter = currentQuadtree.getLeafCount();
         
-        System.out.println("\n Compression Phi appliquée !");
+        System.out.println("\n Compression Phi appliquée (sur l'arbre d'origine) !");
         System.out.println("  Phi = " + phi);
         System.out.println("  Feuilles avant : " + leafCountBefore);
         System.out.println("  Feuilles après : " + leafCountAfter);
@@ -187,7 +253,7 @@ public class Main {
         
         String filename = readString("Nom du fichier de sortie PNG : ");
         
-        ImagePNG img = currentQuadtree.toPNG();
+        ImagePNG img = currentQuadtree.toPNG(new AVL(currentQuadtree));
         img.save(filename);
         
         System.out.println("\n✓ Image sauvegardée : " + filename);
@@ -251,7 +317,7 @@ public class Main {
      * Calcule l'Erreur Quadratique Moyenne entre deux images
      * Utilise la méthode fournie dans ImagePNG.java
      */
-    private static double calculateEQM(ImagePNG img1, ImagePNG img2) {
+    private static double calculateEQM(PixelSource img1, PixelSource img2) {
         return ImagePNG.computeEQM(img1, img2);
     }
     
@@ -363,9 +429,41 @@ public class Main {
         System.out.println("Paramètre : " + paramStr);
         System.out.println();
         
+        // Générer les noms de fichiers de sortie
+        String baseName = PixelSource.baseName(inputFile);
+        String suffix = "-" + method.toLowerCase() + paramStr;
+        
+        String pngOutput = baseName + suffix + ".png";
+        String txtOutput = baseName + suffix + "R.txt";
+        String avlOutput = baseName + suffix + "AVL.txt";
+        
+        // Mesures par étape (si -Dcompression.stats=table|json)
+        Instrumentation stats = Instrumentation.fromSystemProperties();
+        
+        // Résultat déjà en cache (si activé) : empreinte du fichier, sans décodage
+        ResultCache cache = ResultCache.shared();
+        BatchCompressor.Variant variant = new BatchCompressor.Variant(method, Integer.parseInt(paramStr));
+        if (cache != null) stats.begin("cache");
+        String hash = cache == null ? null : ResultCache.hash(inputFile);
+        ResultCache.Entry entry = cache == null ? null : cache.lookup(hash, variant);
+        if (entry != null && cache.restore(entry, pngOutput, txtOutput, avlOutput)) {
+            stats.end();
+            System.out.println("✓ Résultat trouvé dans le cache");
+            System.out.println("✓ Image compressée : " + pngOutput);
+            System.out.println("✓ Représentation R-quadtree : " + txtOutput);
+            System.out.println("✓ AVL des couleurs : " + avlOutput);
+            System.out.println();
+            printResults(inputFile, pngOutput, entry.eqm, entry.colors, entry.leavesBefore, entry.leavesAfter);
+            printStats(stats);
+            return;
+        }
+        
         // Charger l'image et construire le quadtree
-        ImagePNG img = new ImagePNG(inputFile);
+        stats.begin("decode");
+        PixelSource img = PixelSource.open(inputFile);
+        stats.begin("build");
         RQuadtree quad = new RQuadtree(img);
+        stats.end();
         int initialLeaves = quad.getLeafCount();
         
         System.out.println("Image chargée : " + img.width() + "x" + img.height() + " pixels");
@@ -375,6 +473,7 @@ public class Main {
         int param = Integer.parseInt(paramStr);
         String methodLower = method.toLowerCase();
         
+        stats.begin("compress");
         if (methodLower.equals("lambda")) {
             quad.compressLambda(param);
             System.out.println("Compression Lambda(" + param + ") appliquée");
@@ -384,58 +483,263 @@ public class Main {
         } else {
             throw new IllegalArgumentException("Méthode inconnue : " + method + " (utilisez Lambda ou Phi)");
         }
+        stats.end();
         
         int finalLeaves = quad.getLeafCount();
         System.out.println("Feuilles après compression : " + finalLeaves);
         System.out.println();
         
-        // Générer les noms de fichiers de sortie
-        String baseName = inputFile;
-        if (baseName.toLowerCase().endsWith(".png")) {
-            baseName = baseName.substring(0, baseName.length() - 4);
-        }
-        String suffix = "-" + methodLower + paramStr;
-        
-        String pngOutput = baseName + suffix + ".png";
-        String txtOutput = baseName + suffix + "R.txt";
-        String avlOutput = baseName + suffix + "AVL.txt";
+        // Construire l'AVL des couleurs (palette de l'image compressée)
+        stats.begin("avl");
+        AVL avl = new AVL(quad);
+        stats.end();
         
         // Sauvegarder l'image compressée
-        ImagePNG compressedImg = quad.toPNG();
+        stats.begin("render");
+        ImagePNG compressedImg = quad.toPNG(avl);
+        stats.begin("encode");
         compressedImg.save(pngOutput);
+        stats.end();
         System.out.println("✓ Image compressée : " + pngOutput);
         
         // Sauvegarder la représentation textuelle du quadtree
+        stats.begin("toStr");
         saveToFile(quad.toStr(), txtOutput);
+        stats.end();
         System.out.println("✓ Représentation R-quadtree : " + txtOutput);
         
-        // Construire et sauvegarder l'AVL
-        AVL avl = new AVL(quad);
+        // Sauvegarder l'AVL
         saveToFile(avl.toStr(), avlOutput);
         System.out.println("✓ AVL des couleurs : " + avlOutput);
         System.out.println();
         
-        // Calculer les métriques
-        File originalFile = new File(inputFile);
-        File compressedFile = new File(pngOutput);
-        double weightRatio = (double) compressedFile.length() / originalFile.length() * 100;
-        
         // Recharger les images pour calculer l'EQM
-        ImagePNG originalImg = new ImagePNG(inputFile);
+        stats.begin("eqm");
+        PixelSource originalImg = PixelSource.open(inputFile);
         ImagePNG finalImg = new ImagePNG(pngOutput);
         double eqm = calculateEQM(originalImg, finalImg);
+        stats.end();
+        
+        if (cache != null) {
+            stats.begin("cache");
+            cache.store(hash, variant, pngOutput, txtOutput, avlOutput, img.width(), img.height(),
+                        initialLeaves, finalLeaves, avl.size(), eqm);
+            stats.end();
+        }
+        
+        printResults(inputFile, pngOutput, eqm, avl.size(), initialLeaves, finalLeaves);
+        printStats(stats);
+    }
+    
+    /**
+     * Affiche les mesures par étape si l'instrumentation est activée
+     */
+    private static void printStats(Instrumentation stats) {
+        if (!stats.isEnabled()) return;
+        System.out.println();
+        System.out.println("=== Statistiques ===");
+        System.out.print(stats.report());
+    }
+    
+    /**
+     * Affiche les métriques du mode non-interactif
+     */
+    private static void printResults(String inputFile, String pngOutput, double eqm, int colors,
+                                     int initialLeaves, int finalLeaves) {
+        File originalFile = new File(inputFile);
+        File compressedFile = new File(pngOutput);
+        double weightRatio = (double) compressedFile.length() / originalFile.length() * 100;
         
-        // Afficher les résultats
         System.out.println("=== Résultats ===");
         System.out.println("Fichier original : " + originalFile.length() + " octets");
         System.out.println("Fichier compressé : " + compressedFile.length() + " octets");
         System.out.println("Rapport de poids : " + String.format("%.2f", weightRatio) + "%");
         System.out.println("Indice EQM : " + String.format("%.4f", eqm) + "%");
-        System.out.println("Nombre de couleurs dans l'AVL : " + avl.size());
+        System.out.println("Nombre de couleurs dans l'AVL : " + colors);
         System.out.println("Réduction de feuilles : " + initialLeaves + " → " + finalLeaves + 
             " (" + String.format("%.1f", 100.0 * (initialLeaves - finalLeaves) / initialLeaves) + "%)");
     }
     
+    /**
+     * Mode non-interactif avec plusieurs variantes : l'image est décodée et le R-quadtree
+     * construit une seule fois, puis toutes les variantes sont produites en parallèle
+     * Usage : java Main <fichier.png> <Lambda|Phi> <p1,p2,...> [<Lambda|Phi> <p1,p2,...>]
+     * Exemple : java Main images/i.png Lambda 10,20,40,80 Phi 64,256,1024
+     */
+    private static void executeBatchMode(String inputFile, java.util.List<BatchCompressor.Variant> variants) throws IOException {
+        System.out.println("=== Mode Non-Interactif (plusieurs variantes) ===");
+        System.out.println("Fichier : " + inputFile);
+        System.out.println("Variantes : " + variants);
+        System.out.println();
+        
+        java.util.List<BatchCompressor.Result> results = BatchCompressor.compress(inputFile, variants);
+        
+        System.out.println("=== Résultats ===");
+        System.out.println("Fichier original : " + new File(inputFile).length() + " octets");
+        if (!results.isEmpty()) {
+            System.out.println("Feuilles initiales : " + results.get(0).leavesBefore);
+        }
+        for (BatchCompressor.Result result : results) {
+            System.out.println(result.report());
+        }
+    }
+    
+    /**
+     * Mode répertoire : traite toutes les images d'un dossier (ou d'une liste) dans une seule JVM
+     * Usage : java Main --dir <dossier|liste.txt> <Lambda|Phi> <p1,p2,...> [...]
+     *         [--threads N] [--max-pixels P] [--csv fichier.csv] [--pipeline D,C,E,W]
+     * --pipeline donne le nombre de threads des étages décodage, compression, encodage et écriture
+     * Retourne le nombre de fichiers en erreur
+     */
+    private static int executeDirectoryMode(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage : java Main --dir <dossier|liste.txt> <Lambda|Phi> <p1,p2,...> [options]");
+        }
+        
+        // Séparer les options des variantes
+        java.util.List<String> variantArgs = new java.util.ArrayList<>();
+        Integer threads = null;
+        Long maxPixels = null;
+        String csvFile = null;
+        int[] stageThreads = null;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-pixels":
+                    maxPixels = Long.parseLong(args[++i]);
+                    break;
+                case "--csv":
+                    csvFile = args[++i];
+                    break;
+                case "--pipeline":
+                    String[] counts = args[++i].split(",");
+                    if (counts.length != 4) {
+                        throw new IllegalArgumentException("--pipeline attend 4 nombres : décodage,compression,encodage,écriture");
+                    }
+                    stageThreads = new int[4];
+                    for (int k = 0; k < 4; k++) {
+                        stageThreads[k] = Integer.parseInt(counts[k].trim());
+                    }
+                    break;
+                default:
+                    variantArgs.add(args[i]);
+            }
+        }
+        
+        DirectoryBatch batch = new DirectoryBatch(BatchCompressor.Variant.parse(variantArgs.toArray(new String[0]), 0));
+        if (threads != null) batch.threads(threads);
+        if (maxPixels != null) batch.maxPixels(maxPixels);
+        if (csvFile != null) batch.csvFile(csvFile);
+        if (stageThreads != null) batch.pipeline(stageThreads[0], stageThreads[1], stageThreads[2], stageThreads[3]);
+        
+        java.util.List<String> inputs = batch.listInputs(args[1]);
+        System.out.println("=== Mode Répertoire ===");
+        System.out.println("Source : " + args[1] + " (" + inputs.size() + " fichier(s))");
+        System.out.println();
+        return batch.run(inputs);
+    }
+    
+    /**
+     * Mode tuiles, pour les images dont l'arbre ne tient pas en mémoire : R-quadtree découpé
+     * en tuiles sur disque (TiledRQuadtree), image compressée écrite en raster brut projeté en mémoire
+     */
+    private static void executeTiledMode(String[] args) throws IOException {
+        if (args.length < 4 || args.length > 5) {
+            throw new IllegalArgumentException("Usage : java Main --tiled <image> <Lambda|Phi> <paramètre> [sortie.ppm|.pam|.raw]");
+        }
+        String inputFile = args[1], method = args[2];
+        long param = Long.parseLong(args[3]);
+        String baseName = PixelSource.baseName(inputFile) + "-" + method.toLowerCase() + param;
+        String rasterOutput = args.length == 5 ? args[4] : baseName + ".ppm";
+        String txtOutput = baseName + "R.txt";
+        
+        System.out.println("=== Mode Tuiles ===");
+        System.out.println("Fichier : " + inputFile);
+        System.out.println("Méthode : " + method);
+        System.out.println("Paramètre : " + param);
+        System.out.println();
+        
+        Instrumentation stats = Instrumentation.fromSystemProperties();
+        stats.begin("decode");
+        PixelSource img = PixelSource.open(inputFile);
+        stats.begin("build");
+        try (TiledRQuadtree quad = new TiledRQuadtree(img)) {
+            stats.end();
+            long initialLeaves = quad.getLeafCount();
+            System.out.println("Image chargée : " + img.width() + "x" + img.height() + " pixels (tuiles de "
+                               + quad.getTileSize() + "x" + quad.getTileSize() + ")");
+            System.out.println("Feuilles initiales : " + initialLeaves);
+            
+            stats.begin("compress");
+            if (method.equalsIgnoreCase("lambda")) {
+                quad.compressLambda(param);
+            } else if (method.equalsIgnoreCase("phi")) {
+                quad.compressPhi(param);
+            } else {
+                throw new IllegalArgumentException("Méthode inconnue : " + method + " (utilisez Lambda ou Phi)");
+            }
+            stats.end();
+            long finalLeaves = quad.getLeafCount();
+            System.out.println("Feuilles après compression : " + finalLeaves);
+            System.out.println();
+            
+            stats.begin("render");
+            RawImage compressed = quad.writeRaster(rasterOutput);
+            stats.end();
+            System.out.println("✓ Image compressée : " + rasterOutput);
+            
+            stats.begin("toStr");
+            try (java.io.Writer out = new java.io.BufferedWriter(new FileWriter(txtOutput), 1 << 16)) {
+                quad.appendStr(out);
+            }
+            stats.end();
+            System.out.println("✓ Représentation R-quadtree : " + txtOutput);
+            System.out.println();
+            
+            stats.begin("eqm");
+            double eqm = calculateEQM(img, compressed);
+            stats.end();
+            
+            System.out.println("=== Résultats ===");
+            System.out.println("Indice EQM : " + String.format("%.4f", eqm) + "%");
+            System.out.println("Réduction de feuilles : " + initialLeaves + " → " + finalLeaves +
+                " (" + String.format("%.1f", 100.0 * (initialLeaves - finalLeaves) / initialLeaves) + "%)");
+            System.out.println("Tuiles lues sur le disque : " + quad.getTileLoads());
+        }
+        printStats(stats);
+    }
+    
+    /**
+     * Mode serveur : service HTTP de compression sur 127.0.0.1 (voir CompressionServer)
+     * Usage : java Main --serve [--port N] [--threads N]
+     * S'arrête sur Ctrl+C, en laissant finir les requêtes en cours
+     */
+    private static void executeServerMode(String[] args) throws IOException {
+        int port = 8080;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue : " + args[i]);
+            }
+        }
+        
+        CompressionServer server = new CompressionServer(port, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5)));
+        server.start();
+        System.out.println("=== Mode Serveur ===");
+        System.out.println("Écoute sur http://127.0.0.1:" + server.getPort() + " (" + threads + " threads)");
+        System.out.println("POST /compress?method=<lambda|phi>&param=<N>[&format=png|tree|avl]");
+    }
+    
     // Méthodes utilitaires
     
     private static String readString(String prompt) {
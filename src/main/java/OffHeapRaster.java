@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Image RVB stockée hors du tas Java, dans des ByteBuffer directs (3 octets par pixel)
+ * Les lignes sont réparties en blocs d'au plus 1 Go : la taille n'est pas limitée à 2^31 pixels,
+ * et le ramasse-miettes ne parcourt ni ne déplace jamais les pixels
+ * La mémoire directe est bornée par -XX:MaxDirectMemorySize (par défaut, la taille maximale du tas) :
+ * pour une très grande image, augmenter cette limite plutôt que -Xmx
+ *
+ * Le R-quadtree (RQuadtree(PixelSource)) et l'EQM (ImagePNG.computeEQM) lisent directement ce raster
+ */
+public class OffHeapRaster implements PixelSource {
+
+    private static final long MAX_CHUNK = 1L << 30; // Taille maximale d'un bloc
+
+    private final int width, height;
+    private final int rowBytes;
+    private final int rowsPerChunk;
+    private final ByteBuffer[] chunks;
+
+    /**
+     * Raster noir de la taille donnée
+     * Complexité : O(n) (mise à zéro par le système)
+     */
+    public OffHeapRaster(int width, int height) {
+        if (width <= 0 || height <= 0 || (long) width * 3 > MAX_CHUNK) {
+            throw new IllegalArgumentException("Dimensions invalides : " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.rowBytes = width * 3;
+        this.rowsPerChunk = (int) Math.min(height, MAX_CHUNK / rowBytes);
+        this.chunks = new ByteBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+        try {
+            for (int i = 0; i < chunks.length; i++) {
+                int rows = Math.min(rowsPerChunk, height - i * rowsPerChunk);
+                chunks[i] = ByteBuffer.allocateDirect(rows * rowBytes);
+            }
+        } catch (OutOfMemoryError e) {
+            throw new OutOfMemoryError("Mémoire directe insuffisante pour " + width + "x" + height
+                + " pixels (" + ((long) rowBytes * height >> 20) + " Mo) : augmenter -XX:MaxDirectMemorySize");
+        }
+    }
+
+    /**
+     * Copie ligne par ligne d'une source de pixels
+     * Complexité : O(n) où n = nombre de pixels
+     */
+    public static OffHeapRaster copyOf(PixelSource src) {
+        OffHeapRaster raster = new OffHeapRaster(src.width(), src.height());
+        int[] row = new int[src.width()];
+        for (int y = 0; y < src.height(); y++) {
+            for (int x = 0; x < row.length; x++) {
+                row[x] = src.rgb(x, y);
+            }
+            raster.setRow(y, row);
+        }
+        return raster;
+    }
+
+    /**
+     * Décode une image dans un raster hors du tas
+     * Les PNG non entrelacés 8 bits (RVB, RVBA) et à palette sont décodés ligne par ligne
+     * (seules deux lignes sont sur le tas) ; les autres images passent par ImageIO
+     * Complexité : O(n)
+     */
+    public static OffHeapRaster decode(String filename) throws IOException {
+        if (RawImage.isRawFile(filename)) {
+            return copyOf(RawImage.open(filename));
+        }
+        try (PngRowReader reader = PngRowReader.open(filename)) {
+            if (reader == null) {
+                return copyOf(new ImagePNG(filename)); // Format non pris en charge ligne par ligne
+            }
+            OffHeapRaster raster = new OffHeapRaster(reader.width(), reader.height());
+            int[] row = new int[reader.width()];
+            for (int y = 0; y < reader.height(); y++) {
+                reader.readRow(row);
+                raster.setRow(y, row);
+            }
+            return raster;
+        }
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public int rgb(int x, int y) {
+        ByteBuffer chunk = chunks[y / rowsPerChunk];
+        int i = (y % rowsPerChunk) * rowBytes + x * 3;
+        return (chunk.get(i) & 0xFF) << 16 | (chunk.get(i + 1) & 0xFF) << 8 | (chunk.get(i + 2) & 0xFF);
+    }
+
+    /**
+     * Modifie la couleur (0xRRGGBB) du pixel (x, y)
+     * Complexité : O(1)
+     */
+    public void setRGB(int x, int y, int rgb) {
+        ByteBuffer chunk = chunks[y / rowsPerChunk];
+        int i = (y % rowsPerChunk) * rowBytes + x * 3;
+        chunk.put(i, (byte) (rgb >> 16)).put(i + 1, (byte) (rgb >> 8)).put(i + 2, (byte) rgb);
+    }
+
+    /**
+     * Remplace la ligne y (au moins width() couleurs 0xRRGGBB)
+     * Complexité : O(l)
+     */
+    public void setRow(int y, int[] rgb) {
+        ByteBuffer chunk = chunks[y / rowsPerChunk];
+        int i = (y % rowsPerChunk) * rowBytes;
+        for (int x = 0; x < width; x++, i += 3) {
+            int c = rgb[x];
+            chunk.put(i, (byte) (c >> 16)).put(i + 1, (byte) (c >> 8)).put(i + 2, (byte) c);
+        }
+    }
+
+    /**
+     * Taille des pixels hors du tas, en octets
+     */
+    public long sizeBytes() {
+        return (long) rowBytes * height;
+    }
+}
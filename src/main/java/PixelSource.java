@@ -0,0 +1,61 @@
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Source de pixels en lecture : image PNG décodée (ImagePNG) ou raster brut projeté en mémoire (RawImage)
+ * Le R-quadtree et le calcul de l'EQM ne dépendent que de cette interface
+ */
+public interface PixelSource {
+
+    /** Nombre de pixels en X */
+    int width();
+
+    /** Nombre de pixels en Y */
+    int height();
+
+    /**
+     * Couleur du pixel (x, y) au format 0xRRGGBB (sans alpha)
+     * Complexité : O(1)
+     */
+    int rgb(int x, int y);
+
+    /**
+     * Ouvre une image selon son extension : raster brut (.ppm, .pam, .raw) projeté en mémoire,
+     * ou image décodée ; une image décodée d'au moins compression.offheap.minPixels pixels
+     * (par défaut, celles qui occuperaient plus du quart du tas) est stockée hors du tas (OffHeapRaster)
+     */
+    static PixelSource open(String filename) throws IOException {
+        if (RawImage.isRawFile(filename)) {
+            return RawImage.open(filename);
+        }
+        long minPixels = Long.getLong("compression.offheap.minPixels", Runtime.getRuntime().maxMemory() / 16);
+        Dimension size = ImagePNG.readSize(filename);
+        if ((long) size.width * size.height >= minPixels) {
+            return OffHeapRaster.decode(filename);
+        }
+        return new ImagePNG(filename);
+    }
+
+    /**
+     * Dimensions de l'image, lues dans l'en-tête du fichier (sans décoder les pixels)
+     */
+    static Dimension readSize(String filename) throws IOException {
+        if (RawImage.isRawFile(filename)) {
+            RawImage img = RawImage.open(filename);
+            return new Dimension(img.width(), img.height());
+        }
+        return ImagePNG.readSize(filename);
+    }
+
+    /**
+     * Nom du fichier sans l'extension d'image reconnue (.png, .ppm, .pam, .raw)
+     */
+    static String baseName(String filename) {
+        String lower = filename.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".png") || RawImage.isRawFile(filename)) {
+            return filename.substring(0, filename.length() - 4);
+        }
+        return filename;
+    }
+}
@@ -0,0 +1,542 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodeur PNG direct (java.util.zip.Deflater), réglable en niveau de compression et en filtres
+ * Il lit directement les tampons des images produites par le projet : couleurs vraies
+ * (TYPE_INT_RGB) et couleurs indexées (palette de 1 à 8 bits) ; les autres images sont
+ * laissées à ImageIO (voir supports)
+ *
+ * Les images issues d'un R-quadtree sont faites de carrés uniformes : beaucoup de lignes sont
+ * identiques à la précédente, et le filtre Up les réduit à des zéros. Une ligne répétée est donc
+ * codée avec Up, sans évaluer les autres filtres (sauf avec le filtre None) ; les autres lignes
+ * des images en couleurs vraies utilisent le filtre choisi. Les lignes d'indices de palette ne sont
+ * pas filtrées (recommandation de la norme PNG : filtrer des indices n'a pas de sens)
+ *
+ * Aucun filtre n'est le meilleur partout : None l'emporte sur les images à grands aplats, le choix
+ * par ligne sur les photos peu compressées, et sur une petite image la palette (bloc PLTE) coûte
+ * plus qu'elle ne fait gagner. Le filtre AUTO compresse donc un échantillon de lignes (toute l'image
+ * si elle est petite) de plusieurs façons : indices de palette, couleurs vraies avec None, Up ou
+ * choix par ligne ; la plus petite est retenue pour toute l'image
+ *
+ * Préréglages (-Dcompression.png=fast|balanced|small|imageio, balanced par défaut) :
+ * - fast : niveau 1, filtre Up, pour les traitements par lots
+ * - balanced : niveau 6, filtre Up, plus rapide qu'ImageIO (l'essai de plusieurs façons coûte trop cher par défaut)
+ * - small : niveau 9, filtre AUTO, le plus petit fichier
+ * - imageio : encodeur ImageIO par défaut
+ * -Dcompression.png.level=N (0 à 9) et -Dcompression.png.filter=none|sub|up|average|paeth|adaptive|auto
+ * remplacent le niveau et le filtre du préréglage
+ */
+public class PngEncoder {
+
+    /**
+     * Filtre des lignes (images en couleurs vraies) ; ADAPTIVE essaie les cinq filtres sur chaque ligne,
+     * AUTO choisit pour toute l'image entre palette, None, Up et ADAPTIVE (voir plus haut)
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE, AUTO
+    }
+
+    /**
+     * Préréglages vitesse / taille
+     */
+    public enum Preset {
+        FAST(1, Filter.UP),
+        BALANCED(6, Filter.UP),
+        SMALL(9, Filter.AUTO);
+
+        final int level;
+        final Filter filter;
+
+        Preset(int level, Filter filter) {
+            this.level = level;
+            this.filter = filter;
+        }
+    }
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final int NONE = 0, SUB = 1, UP = 2, AVERAGE = 3, PAETH = 4; // Codes des filtres PNG
+    private static final int CHUNK_BYTES = 1 << 16; // Taille maximale d'un bloc IDAT
+    private static final int SAMPLE_BYTES = 1 << 18; // Taille (non compressée) de l'échantillon du filtre AUTO
+    private static final int SAMPLE_BAND = 16;       // Lignes consécutives par bande de l'échantillon
+
+    private final int level;
+    private final Filter filter;
+
+    public PngEncoder(Preset preset) {
+        this(preset.level, preset.filter);
+    }
+
+    /**
+     * Encodeur de niveau (0 à 9) et de filtre donnés
+     */
+    public PngEncoder(int level, Filter filter) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Le niveau de compression doit être entre 0 et 9 : " + level);
+        }
+        this.level = level;
+        this.filter = filter;
+    }
+
+    /**
+     * Encodeur configuré par les propriétés système compression.png, compression.png.level
+     * et compression.png.filter ; retourne null si l'encodeur ImageIO est demandé
+     */
+    public static PngEncoder fromSystemProperties() {
+        String name = System.getProperty("compression.png", "balanced").toLowerCase(Locale.ROOT);
+        if (name.equals("imageio")) return null;
+        Preset preset;
+        try {
+            preset = Preset.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Encodeur PNG inconnu : " + name + " (fast, balanced, small ou imageio)");
+        }
+        String filterName = System.getProperty("compression.png.filter");
+        Filter filter = preset.filter;
+        if (filterName != null) {
+            try {
+                filter = Filter.valueOf(filterName.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Filtre PNG inconnu : " + filterName + " (none, sub, up, average, paeth, adaptive ou auto)");
+            }
+        }
+        return new PngEncoder(Integer.getInteger("compression.png.level", preset.level), filter);
+    }
+
+    /**
+     * Réglages de l'encodeur, par exemple "deflate4-up" (utilisé dans les clés du cache de résultats)
+     */
+    @Override
+    public String toString() {
+        return "deflate" + level + "-" + filter.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Indique si l'image peut être encodée directement (sinon, utiliser ImageIO)
+     */
+    public static boolean supports(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return false; // Sous-image : le tampon ne commence pas au pixel (0, 0)
+        }
+        SampleModel sm = img.getSampleModel();
+        switch (img.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+                return sm instanceof SinglePixelPackedSampleModel;
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                return sm instanceof ComponentSampleModel && ((IndexColorModel) img.getColorModel()).getMapSize() <= 256
+                    && !img.getColorModel().hasAlpha();
+            case BufferedImage.TYPE_BYTE_BINARY:
+                return sm instanceof MultiPixelPackedSampleModel && !img.getColorModel().hasAlpha();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Encodeur configuré par les propriétés système ; en cas de réglage invalide, l'erreur est signalée
+     * sur la sortie d'erreur et le préréglage balanced est utilisé (Main vérifie les réglages au démarrage)
+     */
+    static PngEncoder fromSystemPropertiesOrDefault() {
+        try {
+            return fromSystemProperties();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Attention : " + e.getMessage() + " ; encodeur balanced utilisé");
+            return new PngEncoder(Preset.BALANCED);
+        }
+    }
+
+    /**
+     * Écrit l'image au format PNG
+     * Complexité : O(n) où n = nombre de pixels (5 filtres essayés par ligne avec ADAPTIVE ;
+     * AUTO compresse en plus jusqu'à 5 fois un échantillon d'au plus SAMPLE_BYTES octets par façon)
+     */
+    public void write(BufferedImage img, OutputStream out) throws IOException {
+        if (!supports(img)) {
+            throw new IllegalArgumentException("Type d'image non pris en charge : " + img.getType());
+        }
+        boolean indexed = img.getType() != BufferedImage.TYPE_INT_RGB;
+        Layout layout = new Layout(img, indexed);
+        Filter rowFilter = filter;
+        byte[] idat = null; // Blocs IDAT déjà produits (échantillon = image entière)
+        if (filter == Filter.AUTO) {
+            Candidate best = chooseLayout(img, indexed);
+            layout = best.layout;
+            rowFilter = best.filter;
+            idat = best.idat;
+        }
+
+        out.write(SIGNATURE);
+        writeHeader(out, img, layout);
+        if (idat != null) {
+            out.write(idat);
+        } else {
+            Deflater deflater = new Deflater(level);
+            try {
+                IdatWriter writer = new IdatWriter(out, deflater);
+                encodeRows(layout, rowFilter, 0, img.getHeight(), writer);
+                writer.finish();
+            } finally {
+                deflater.end();
+            }
+        }
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    // En-tête IHDR, et palette PLTE pour une image écrite en couleurs indexées
+    private static void writeHeader(OutputStream out, BufferedImage img, Layout layout) throws IOException {
+        byte[] header = new byte[13];
+        putInt(header, 0, img.getWidth());
+        putInt(header, 4, img.getHeight());
+        header[8] = (byte) layout.bits;
+        header[9] = (byte) (layout.indexed ? 3 : 2); // Type de couleur : palette ou RGB
+        writeChunk(out, "IHDR", header, header.length);
+        if (layout.indexed) {
+            writeChunk(out, "PLTE", palette((IndexColorModel) img.getColorModel()), -1);
+        }
+    }
+
+    /**
+     * Façon d'écrire les lignes : indices de palette (image indexée) ou couleurs vraies
+     * (une image indexée peut aussi être écrite en couleurs vraies)
+     */
+    private static final class Layout {
+        final BufferedImage img;
+        final boolean indexed;
+        final int bits, rowBytes, bpp;
+        final int[] colors;         // Couleurs de la palette, pour écrire une image indexée en couleurs vraies
+        final byte[] source;        // Ligne d'indices lue avant conversion
+
+        Layout(BufferedImage img, boolean indexed) {
+            this.img = img;
+            this.indexed = indexed;
+            boolean paletteImage = img.getType() != BufferedImage.TYPE_INT_RGB;
+            int width = img.getWidth();
+            int sourceBits = paletteImage ? img.getColorModel().getPixelSize() : 8;
+            this.bits = indexed ? sourceBits : 8;
+            this.rowBytes = indexed ? (width * bits + 7) / 8 : width * 3;
+            this.bpp = indexed ? 1 : 3; // Distance (en octets) du pixel de gauche pour les filtres
+            if (paletteImage && !indexed) {
+                IndexColorModel icm = (IndexColorModel) img.getColorModel();
+                this.colors = new int[icm.getMapSize()];
+                icm.getRGBs(colors);
+                this.source = new byte[(width * sourceBits + 7) / 8];
+            } else {
+                this.colors = null;
+                this.source = null;
+            }
+        }
+
+        // Ligne y telle qu'écrite dans le PNG, avant filtrage
+        void read(int y, byte[] row) {
+            if (colors == null) {
+                readRow(img, y, row, rowBytes);
+                return;
+            }
+            readRow(img, y, source, source.length);
+            int pixelBits = img.getColorModel().getPixelSize(), perByte = 8 / pixelBits, mask = (1 << pixelBits) - 1;
+            for (int x = 0, i = 0; x < img.getWidth(); x++) {
+                int b = source[x / perByte] & 0xFF;
+                int rgb = colors[(b >> (8 - pixelBits * (x % perByte + 1))) & mask];
+                row[i++] = (byte) (rgb >> 16);
+                row[i++] = (byte) (rgb >> 8);
+                row[i++] = (byte) rgb;
+            }
+        }
+    }
+
+    // Filtre et compresse les lignes [from, to) ; la ligne from - 1 sert de ligne précédente
+    private static void encodeRows(Layout layout, Filter filter, int from, int to, IdatWriter writer) throws IOException {
+        int rowBytes = layout.rowBytes;
+        byte[] previous = new byte[rowBytes], current = new byte[rowBytes];
+        byte[][] filtered = new byte[5][1 + rowBytes];
+        if (from > 0) {
+            layout.read(from - 1, previous);
+        }
+        for (int y = from; y < to; y++) {
+            layout.read(y, current);
+            int code;
+            if (y > 0 && filter != Filter.NONE && same(current, previous, rowBytes)) {
+                code = UP; // Ligne répétée : que des zéros
+            } else if (layout.indexed) {
+                code = NONE;
+            } else if (filter == Filter.ADAPTIVE) {
+                code = chooseFilter(current, previous, layout.bpp, filtered);
+            } else {
+                code = filter.ordinal();
+            }
+            if (filter != Filter.ADAPTIVE || code == UP || layout.indexed) {
+                applyFilter(code, current, previous, layout.bpp, filtered[code]);
+            }
+            writer.write(filtered[code], 1 + rowBytes);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+    }
+
+    /**
+     * Une façon d'écrire l'image (AUTO), avec la taille estimée du fichier
+     */
+    private static final class Candidate {
+        final Layout layout;
+        final Filter filter;
+        long bytes;
+        byte[] idat;
+
+        Candidate(Layout layout, Filter filter) {
+            this.layout = layout;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * Compresse l'échantillon de chaque façon d'écrire l'image et retourne la plus petite ;
+     * si l'échantillon est l'image entière, ses blocs IDAT sont gardés et réutilisés
+     */
+    private Candidate chooseLayout(BufferedImage img, boolean indexed) throws IOException {
+        int height = img.getHeight();
+        List<Candidate> candidates = new ArrayList<>();
+        if (indexed) {
+            Layout palette = new Layout(img, true);
+            candidates.add(new Candidate(palette, Filter.NONE));
+            candidates.add(new Candidate(palette, Filter.UP)); // Indices, lignes répétées codées avec Up
+        }
+        Layout rgb = new Layout(img, false);
+        for (Filter f : new Filter[] { Filter.NONE, Filter.UP, Filter.ADAPTIVE }) {
+            candidates.add(new Candidate(rgb, f));
+        }
+
+        // Échantillon : bandes de SAMPLE_BAND lignes réparties sur l'image (toute l'image si elle est petite)
+        int bands = (int) Math.min((height + SAMPLE_BAND - 1) / SAMPLE_BAND,
+                                   Math.max(1, SAMPLE_BYTES / ((long) (1 + rgb.rowBytes) * SAMPLE_BAND)));
+        boolean whole = (long) bands * SAMPLE_BAND >= height;
+        long sampledRows = whole ? height : (long) bands * SAMPLE_BAND;
+
+        Candidate best = null;
+        Deflater deflater = new Deflater(level);
+        try {
+            for (Candidate candidate : candidates) {
+                deflater.reset();
+                ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+                IdatWriter writer = new IdatWriter(chunks, deflater);
+                if (whole) {
+                    encodeRows(candidate.layout, candidate.filter, 0, height, writer);
+                } else {
+                    for (int b = 0; b < bands; b++) {
+                        int from = (int) ((long) b * (height - SAMPLE_BAND) / Math.max(1, bands - 1));
+                        encodeRows(candidate.layout, candidate.filter, from, from + SAMPLE_BAND, writer);
+                    }
+                }
+                writer.finish();
+                candidate.bytes = chunks.size() * height / sampledRows;
+                if (candidate.layout.indexed) {
+                    candidate.bytes += 12 + 3L * ((IndexColorModel) img.getColorModel()).getMapSize(); // Bloc PLTE
+                }
+                if (whole) {
+                    candidate.idat = chunks.toByteArray();
+                }
+                if (best == null || candidate.bytes < best.bytes) {
+                    best = candidate;
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return best;
+    }
+
+    // Lecture d'une ligne brute (octets tels qu'écrits dans le PNG, avant filtrage)
+
+    private static void readRow(BufferedImage img, int y, byte[] row, int rowBytes) {
+        WritableRaster raster = img.getRaster();
+        if (img.getType() == BufferedImage.TYPE_INT_RGB) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            int offset = raster.getDataBuffer().getOffset() + y * stride;
+            for (int x = 0, i = 0; i < rowBytes; x++) {
+                int rgb = data[offset + x];
+                row[i++] = (byte) (rgb >> 16);
+                row[i++] = (byte) (rgb >> 8);
+                row[i++] = (byte) rgb;
+            }
+        } else {
+            // Indexée : les pixels sont déjà rangés comme dans le PNG (bits de poids fort en premier)
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            SampleModel sm = raster.getSampleModel();
+            int stride = sm instanceof MultiPixelPackedSampleModel
+                ? ((MultiPixelPackedSampleModel) sm).getScanlineStride()
+                : ((ComponentSampleModel) sm).getScanlineStride();
+            System.arraycopy(data, raster.getDataBuffer().getOffset() + y * stride, row, 0, rowBytes);
+        }
+    }
+
+    private static boolean same(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    // Filtres
+
+    /**
+     * Choisit le filtre dont la sortie a la plus petite somme des valeurs absolues (octets signés)
+     * Le résultat reste dans filtered[filtre]
+     */
+    private static int chooseFilter(byte[] row, byte[] previous, int bpp, byte[][] filtered) {
+        int best = NONE;
+        long bestScore = Long.MAX_VALUE;
+        for (int code = NONE; code <= PAETH; code++) {
+            applyFilter(code, row, previous, bpp, filtered[code]);
+            long score = score(filtered[code]);
+            if (score < bestScore) {
+                best = code;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static long score(byte[] filtered) {
+        long sum = 0;
+        for (int i = 1; i < filtered.length; i++) {
+            sum += Math.abs(filtered[i]);
+        }
+        return sum;
+    }
+
+    // Écrit dans out[1..] la ligne filtrée, précédée de l'octet de type de filtre
+    private static void applyFilter(int filter, byte[] row, byte[] previous, int bpp, byte[] out) {
+        out[0] = (byte) filter;
+        int n = row.length;
+        switch (filter) {
+            case NONE:
+                System.arraycopy(row, 0, out, 1, n);
+                break;
+            case SUB:
+                for (int i = 0; i < n; i++) {
+                    out[i + 1] = (byte) (row[i] - (i >= bpp ? row[i - bpp] : 0));
+                }
+                break;
+            case UP:
+                for (int i = 0; i < n; i++) {
+                    out[i + 1] = (byte) (row[i] - previous[i]);
+                }
+                break;
+            case AVERAGE:
+                for (int i = 0; i < n; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    out[i + 1] = (byte) (row[i] - ((left + (previous[i] & 0xFF)) >> 1));
+                }
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = previous[i] & 0xFF;
+                    int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+                    out[i + 1] = (byte) (row[i] - paeth(a, b, c));
+                }
+                break;
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    // Blocs PNG
+
+    private static byte[] palette(IndexColorModel icm) {
+        int size = icm.getMapSize();
+        byte[] plte = new byte[size * 3];
+        for (int i = 0; i < size; i++) {
+            plte[3 * i] = (byte) icm.getRed(i);
+            plte[3 * i + 1] = (byte) icm.getGreen(i);
+            plte[3 * i + 2] = (byte) icm.getBlue(i);
+        }
+        return plte;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        if (length < 0) length = data.length;
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(name, 0, header, 4, 4);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        out.write(header);
+        out.write(data, 0, length);
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+        out.write(trailer);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Compresse les lignes filtrées et les écrit en blocs IDAT d'au plus CHUNK_BYTES octets
+     */
+    private static class IdatWriter {
+        private final OutputStream out;
+        private final Deflater deflater;
+        private final byte[] buffer = new byte[CHUNK_BYTES];
+        private int used;
+
+        IdatWriter(OutputStream out, Deflater deflater) {
+            this.out = out;
+            this.deflater = deflater;
+        }
+
+        void write(byte[] data, int length) throws IOException {
+            deflater.setInput(data, 0, length);
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+
+        void finish() throws IOException {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain();
+            }
+            if (used > 0) {
+                writeChunk(out, "IDAT", buffer, used);
+            }
+        }
+
+        private void drain() throws IOException {
+            used += deflater.deflate(buffer, used, buffer.length - used);
+            if (used == buffer.length) {
+                writeChunk(out, "IDAT", buffer, used);
+                used = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Lecture séquentielle, ligne par ligne, d'un PNG non entrelacé : seules la ligne courante
+ * et la précédente sont en mémoire (au lieu de l'image entière pour ImageIO)
+ * Types pris en charge : RVB et RVBA sur 8 bits, palette sur 1, 2, 4 ou 8 bits ;
+ * les couleurs lues sont celles que renvoie ImagePNG pour le même fichier (alpha ignoré)
+ */
+class PngRowReader implements Closeable {
+
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+
+    private final DataInputStream in;
+    private final int width, height, bitDepth, colorType;
+    private final int rowBytes, bpp;
+    private int[] palette;
+    private final Inflater inflater = new Inflater();
+    private InputStream pixels;
+    private byte[] current, previous;
+
+    private PngRowReader(DataInputStream in, int width, int height, int bitDepth, int colorType) {
+        this.in = in;
+        this.width = width;
+        this.height = height;
+        this.bitDepth = bitDepth;
+        this.colorType = colorType;
+        int channels = colorType == 2 ? 3 : colorType == 6 ? 4 : 1;
+        this.rowBytes = (int) (((long) width * channels * bitDepth + 7) / 8);
+        this.bpp = Math.max(1, channels * bitDepth / 8);
+        this.current = new byte[rowBytes];
+        this.previous = new byte[rowBytes];
+    }
+
+    /**
+     * Ouvre le fichier et lit son en-tête ; retourne null si ce n'est pas un PNG pris en charge
+     */
+    static PngRowReader open(String filename) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+        try {
+            if (in.readLong() != SIGNATURE || in.readInt() != 13 || in.readInt() != chunkType("IHDR")) {
+                in.close();
+                return null;
+            }
+            int width = in.readInt(), height = in.readInt();
+            int bitDepth = in.readUnsignedByte(), colorType = in.readUnsignedByte();
+            in.readUnsignedByte(); // Méthode de compression (toujours 0)
+            in.readUnsignedByte(); // Méthode de filtrage (toujours 0)
+            int interlace = in.readUnsignedByte();
+            in.readInt();          // CRC
+            boolean supported = interlace == 0 && width > 0 && height > 0
+                && ((colorType == 2 || colorType == 6) && bitDepth == 8
+                    || colorType == 3 && (bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8));
+            if (!supported) {
+                in.close();
+                return null;
+            }
+            PngRowReader reader = new PngRowReader(in, width, height, bitDepth, colorType);
+            reader.readUntilPixels();
+            return reader;
+        } catch (EOFException e) {
+            in.close();
+            return null; // Fichier trop court : laissé à ImageIO, qui signalera l'erreur
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    int width() {
+        return width;
+    }
+
+    int height() {
+        return height;
+    }
+
+    /**
+     * Lit la ligne suivante dans rgb (au moins width() couleurs 0xRRGGBB)
+     * Complexité : O(l)
+     */
+    void readRow(int[] rgb) throws IOException {
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+        int filter = pixels.read();
+        if (filter < 0) {
+            throw new EOFException("Données PNG incomplètes");
+        }
+        for (int n = 0; n < rowBytes; ) {
+            int read = pixels.read(current, n, rowBytes - n);
+            if (read < 0) {
+                throw new EOFException("Données PNG incomplètes");
+            }
+            n += read;
+        }
+        unfilter(filter);
+
+        if (colorType == 2 || colorType == 6) {
+            int step = colorType == 2 ? 3 : 4;
+            for (int x = 0, i = 0; x < width; x++, i += step) {
+                rgb[x] = (current[i] & 0xFF) << 16 | (current[i + 1] & 0xFF) << 8 | (current[i + 2] & 0xFF);
+            }
+        } else {
+            int perByte = 8 / bitDepth, mask = (1 << bitDepth) - 1;
+            for (int x = 0; x < width; x++) {
+                int b = current[x / perByte] & 0xFF;
+                int index = (b >> (8 - bitDepth * (x % perByte + 1))) & mask;
+                rgb[x] = index < palette.length ? palette[index] : 0;
+            }
+        }
+    }
+
+    // Inverse des filtres PNG (None, Sub, Up, Average, Paeth)
+    private void unfilter(int filter) throws IOException {
+        byte[] row = current, up = previous;
+        switch (filter) {
+            case 0:
+                break;
+            case 1:
+                for (int i = bpp; i < rowBytes; i++) row[i] += row[i - bpp];
+                break;
+            case 2:
+                for (int i = 0; i < rowBytes; i++) row[i] += up[i];
+                break;
+            case 3:
+                for (int i = 0; i < rowBytes; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    row[i] += (left + (up[i] & 0xFF)) >> 1;
+                }
+                break;
+            case 4:
+                for (int i = 0; i < rowBytes; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int b = up[i] & 0xFF;
+                    int c = i >= bpp ? up[i - bpp] & 0xFF : 0;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+                    row[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                }
+                break;
+            default:
+                throw new IOException("Filtre PNG invalide : " + filter);
+        }
+    }
+
+    // Parcourt les blocs jusqu'au premier IDAT (en gardant la palette)
+    private void readUntilPixels() throws IOException {
+        while (true) {
+            int length = in.readInt();
+            int type = in.readInt();
+            if (type == chunkType("IDAT")) {
+                if (colorType == 3 && palette == null) {
+                    throw new IOException("PNG à palette sans bloc PLTE");
+                }
+                pixels = new InflaterInputStream(new IdatStream(length), inflater, 1 << 16);
+                return;
+            }
+            if (type == chunkType("IEND")) {
+                throw new IOException("PNG sans données d'image");
+            }
+            if (type == chunkType("PLTE")) {
+                palette = new int[length / 3];
+                for (int i = 0; i < palette.length; i++) {
+                    palette[i] = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+                }
+                in.skipBytes(length - palette.length * 3);
+            } else {
+                skipFully(length);
+            }
+            in.readInt(); // CRC
+        }
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) throw new EOFException();
+            n -= skipped;
+        }
+    }
+
+    private static int chunkType(String name) {
+        return name.charAt(0) << 24 | name.charAt(1) << 16 | name.charAt(2) << 8 | name.charAt(3);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    /**
+     * Données compressées de l'image : contenu des blocs IDAT consécutifs, mis bout à bout
+     */
+    private class IdatStream extends InputStream {
+        private int remaining;
+        private boolean done;
+
+        IdatStream(int length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (remaining == 0) {
+                if (done) return -1;
+                in.readInt(); // CRC du bloc terminé
+                int length = in.readInt();
+                if (in.readInt() != chunkType("IDAT")) {
+                    done = true; // Bloc suivant : fin des données d'image
+                    return -1;
+                }
+                remaining = length;
+            }
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n < 0) throw new EOFException("Bloc IDAT tronqué");
+            remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache mémoire des R-quadtrees construits, pour la session interactive
+ * Clé : chemin canonique et date de modification du fichier (une image modifiée est reconstruite)
+ * Les arbres du cache ne sont jamais modifiés : les compressions travaillent sur des versions
+ * obtenues par fork(), qui partagent leurs nœuds avec l'arbre de base
+ * La taille est bornée par une estimation de la mémoire occupée ; les arbres les moins
+ * récemment utilisés sont retirés en premier
+ */
+public class QuadtreeCache {
+
+    // Estimation de la taille d'un nœud : en-tête, champs, 4 références et objet Color
+    static final long NODE_BYTES = 96;
+
+    private static class Entry {
+        final RQuadtree tree;
+        final long bytes;
+
+        Entry(RQuadtree tree, long bytes) {
+            this.tree = tree;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // Ordre d'accès
+    private long totalBytes;
+    private boolean lastHit;
+
+    public QuadtreeCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("La taille du cache doit être > 0");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Retourne l'arbre de base de l'image (construit au premier appel, puis réutilisé)
+     * Complexité : O(1) si l'arbre est en cache, O(n) sinon où n = nombre de pixels
+     */
+    public synchronized RQuadtree get(String filename) throws IOException {
+        File file = new File(filename);
+        if (!file.isFile()) {
+            throw new IOException("Fichier introuvable : " + filename);
+        }
+        String key = file.getCanonicalPath() + "@" + file.lastModified();
+
+        Entry entry = entries.get(key);
+        lastHit = entry != null;
+        if (entry == null) {
+            RQuadtree tree = new RQuadtree(PixelSource.open(filename));
+            entry = new Entry(tree, tree.getTotalNodeCount() * NODE_BYTES);
+            entries.put(key, entry);
+            totalBytes += entry.bytes;
+            evict(entry);
+        }
+        return entry.tree;
+    }
+
+    /**
+     * Indique si le dernier appel à get a trouvé l'arbre dans le cache
+     */
+    public synchronized boolean lastHit() {
+        return lastHit;
+    }
+
+    /** Nombre d'arbres en cache */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Mémoire estimée des arbres en cache, en octets */
+    public synchronized long estimatedBytes() {
+        return totalBytes;
+    }
+
+    // Retire les arbres les moins récemment utilisés ; l'arbre qui vient d'être ajouté est conservé
+    private void evict(Entry keep) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry == keep) continue;
+            totalBytes -= entry.bytes;
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * R-quadtree canonique : les sous-arbres structurellement identiques sont partagés
+ * (hash-consing), ce qui forme un graphe orienté acyclique (DAG)
+ * La mémoire et la taille du format binaire dépendent du nombre de sous-arbres distincts
+ * toPNG et toStr produisent exactement la même sortie que RQuadtree
+ */
+public class QuadtreeDAG {
+
+    private static final int MAGIC = 0x51444147; // "QDAG"
+
+    // Nœud du DAG : ne connaît pas sa position, il peut donc apparaître à plusieurs endroits
+    private static final class Node {
+        final int rgb;           // Couleur moyenne du nœud
+        final double luminance;  // Luminance du nœud
+        final Node NO, NE, SE, SO;
+        final int hash;
+
+        // Feuille
+        Node(int rgb, double luminance) {
+            this.rgb = rgb;
+            this.luminance = luminance;
+            this.NO = this.NE = this.SE = this.SO = null;
+            this.hash = 31 * rgb + Double.hashCode(luminance);
+        }
+
+        // Nœud interne : couleur et luminance moyennes calculées comme RQuadtree.calculateAverageColor
+        Node(Node NO, Node NE, Node SE, Node SO) {
+            int r = red(NO.rgb) + red(NE.rgb) + red(SE.rgb) + red(SO.rgb);
+            int g = green(NO.rgb) + green(NE.rgb) + green(SE.rgb) + green(SO.rgb);
+            int b = blue(NO.rgb) + blue(NE.rgb) + blue(SE.rgb) + blue(SO.rgb);
+            double lum = 0;
+            lum += NO.luminance;
+            lum += NE.luminance;
+            lum += SE.luminance;
+            lum += SO.luminance;
+
+            this.rgb = ((r / 4) << 16) | ((g / 4) << 8) | (b / 4);
+            this.luminance = lum / 4;
+            this.NO = NO;
+            this.NE = NE;
+            this.SE = SE;
+            this.SO = SO;
+            int h = System.identityHashCode(NO);
+            h = 31 * h + System.identityHashCode(NE);
+            h = 31 * h + System.identityHashCode(SE);
+            h = 31 * h + System.identityHashCode(SO);
+            this.hash = h;
+        }
+
+        boolean isLeaf() {
+            return NO == null;
+        }
+
+        // Les fils étant déjà canoniques, on les compare par identité
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Node)) return false;
+            Node other = (Node) o;
+            if (isLeaf() != other.isLeaf()) return false;
+            if (isLeaf()) {
+                return rgb == other.rgb
+                    && Double.doubleToLongBits(luminance) == Double.doubleToLongBits(other.luminance);
+            }
+            return NO == other.NO && NE == other.NE && SE == other.SE && SO == other.SO;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final Map<Node, Node> table = new HashMap<>(); // Table des nœuds canoniques
+    private Node root;
+    private int width, height;
+    private int size; // Taille de la racine (puissance de 2)
+
+    /**
+     * Construction canonique directement depuis l'image, sans matérialiser l'arbre complet
+     * Complexité : O(n) où n = nombre de pixels de l'image
+     */
+    public QuadtreeDAG(ImagePNG img) {
+        this.width = img.width();
+        this.height = img.height();
+        this.size = 1;
+        while (size < Math.max(width, height)) {
+            size *= 2;
+        }
+        this.root = build(img, 0, 0, size);
+    }
+
+    /**
+     * Construction canonique depuis un R-quadtree (éventuellement déjà compressé)
+     * Complexité : O(m) où m = nombre de nœuds du R-quadtree
+     */
+    public QuadtreeDAG(RQuadtree quad) {
+        this.width = quad.getWidth();
+        this.height = quad.getHeight();
+        this.size = quad.getRoot().size;
+        this.root = convert(quad.getRoot());
+    }
+
+    private QuadtreeDAG(int width, int height, int size) {
+        this.width = width;
+        this.height = height;
+        this.size = size;
+    }
+
+    /**
+     * Construction récursive, mêmes règles que RQuadtree.buildTree
+     * Complexité : O(n) où n = nombre de pixels dans la région
+     */
+    private Node build(ImagePNG img, int x, int y, int size) {
+        if (size == 1) {
+            if (x < width && y < height) {
+                Color c = img.getPixel(x, y);
+                double R = c.getRed() / 255.0;
+                double G = c.getGreen() / 255.0;
+                double B = c.getBlue() / 255.0;
+                return intern(new Node(c.getRGB() & 0xFFFFFF, 0.2126 * R + 0.7152 * G + 0.0722 * B));
+            }
+            // Pixel hors de l'image -> couleur par défaut (blanc)
+            return intern(new Node(0xFFFFFF, 1.0));
+        }
+
+        int halfSize = size / 2;
+        Node no = build(img, x, y, halfSize);
+        Node ne = build(img, x + halfSize, y, halfSize);
+        Node se = build(img, x + halfSize, y + halfSize, halfSize);
+        Node so = build(img, x, y + halfSize, halfSize);
+        return combine(no, ne, se, so, true);
+    }
+
+    private Node convert(RQuadtree.Node node) {
+        if (node.isLeaf()) {
+            return intern(new Node(node.color.getRGB() & 0xFFFFFF, node.luminance));
+        }
+        return combine(convert(node.NO), convert(node.NE), convert(node.SE), convert(node.SO), false);
+    }
+
+    /**
+     * Crée le nœud canonique ayant ces 4 fils
+     * Si mergeHomogeneous, 4 feuilles de même couleur sont fusionnées (RQuadtree.areChildrenHomogeneous)
+     * Complexité : O(1) en moyenne
+     */
+    private Node combine(Node no, Node ne, Node se, Node so, boolean mergeHomogeneous) {
+        Node node = new Node(no, ne, se, so);
+        if (mergeHomogeneous && no.isLeaf() && ne.isLeaf() && se.isLeaf() && so.isLeaf()
+                && no.rgb == ne.rgb && no.rgb == se.rgb && no.rgb == so.rgb) {
+            node = new Node(node.rgb, node.luminance);
+        }
+        return intern(node);
+    }
+
+    private Node intern(Node node) {
+        Node canonical = table.putIfAbsent(node, node);
+        return canonical != null ? canonical : node;
+    }
+
+    /**
+     * Convertit le DAG en ImagePNG (même image que RQuadtree.toPNG)
+     * Complexité : O(n) où n = nombre de pixels
+     */
+    public ImagePNG toPNG() {
+        int[] rgb = new int[width * height];
+        fillImage(root, 0, 0, size, rgb);
+        return new ImagePNG(width, height, rgb);
+    }
+
+    private void fillImage(Node node, int x, int y, int size, int[] rgb) {
+        if (x >= width || y >= height) return;
+
+        if (node.isLeaf()) {
+            int xEnd = Math.min(x + size, width), yEnd = Math.min(y + size, height);
+            for (int j = y; j < yEnd; j++) {
+                Arrays.fill(rgb, j * width + x, j * width + xEnd, node.rgb);
+            }
+        } else {
+            int halfSize = size / 2;
+            fillImage(node.NO, x, y, halfSize, rgb);
+            fillImage(node.NE, x + halfSize, y, halfSize, rgb);
+            fillImage(node.SE, x + halfSize, y + halfSize, halfSize, rgb);
+            fillImage(node.SO, x, y + halfSize, halfSize, rgb);
+        }
+    }
+
+    /**
+     * Produit la même représentation textuelle que RQuadtree.toStr
+     * Complexité : O(m) où m = nombre de nœuds de l'arbre déplié
+     */
+    public String toStr() {
+        StringBuilder sb = new StringBuilder();
+        toStrRecursive(root, sb);
+        return sb.toString();
+    }
+
+    private void toStrRecursive(Node node, StringBuilder sb) {
+        if (node.isLeaf()) {
+            sb.append(ImagePNG.colorToHex(new Color(node.rgb)));
+        } else {
+            sb.append("(");
+            toStrRecursive(node.NO, sb);
+            sb.append(" ");
+            toStrRecursive(node.NE, sb);
+            sb.append(" ");
+            toStrRecursive(node.SE, sb);
+            sb.append(" ");
+            toStrRecursive(node.SO, sb);
+            sb.append(")");
+        }
+    }
+
+    /**
+     * Nombre de nœuds distincts réellement stockés
+     * Complexité : O(u) où u = nombre de nœuds distincts
+     */
+    public int getUniqueNodeCount() {
+        return numberNodes().size();
+    }
+
+    /**
+     * Nombre de feuilles de l'arbre déplié (identique à RQuadtree.getLeafCount)
+     * Complexité : O(u) où u = nombre de nœuds distincts
+     */
+    public long getLeafCount() {
+        return countLeaves(root, new IdentityHashMap<>());
+    }
+
+    private long countLeaves(Node node, Map<Node, Long> memo) {
+        if (node.isLeaf()) return 1;
+        Long known = memo.get(node);
+        if (known != null) return known;
+        long leaves = countLeaves(node.NO, memo) + countLeaves(node.NE, memo)
+                    + countLeaves(node.SE, memo) + countLeaves(node.SO, memo);
+        memo.put(node, leaves);
+        return leaves;
+    }
+
+    /**
+     * Numérote les nœuds distincts en ordre postfixe (les fils avant le parent)
+     * Complexité : O(u) où u = nombre de nœuds distincts
+     */
+    private List<Node> numberNodes() {
+        List<Node> order = new ArrayList<>();
+        numberNodes(root, new IdentityHashMap<>(), order);
+        return order;
+    }
+
+    private void numberNodes(Node node, Map<Node, Integer> ids, List<Node> order) {
+        if (ids.containsKey(node)) return;
+        if (!node.isLeaf()) {
+            numberNodes(node.NO, ids, order);
+            numberNodes(node.NE, ids, order);
+            numberNodes(node.SE, ids, order);
+            numberNodes(node.SO, ids, order);
+        }
+        ids.put(node, order.size());
+        order.add(node);
+    }
+
+    /**
+     * Sauvegarde le DAG au format binaire en conservant le partage
+     * Format : en-tête (magic, largeur, hauteur, taille, nombre de nœuds) puis les nœuds en ordre postfixe
+     *   feuille : 0, couleur (int), luminance (double)
+     *   interne : 1, indices des fils NO, NE, SE, SO (int)
+     * La racine est le dernier nœud
+     * Complexité : O(u) où u = nombre de nœuds distincts
+     */
+    public void save(String filename) throws IOException {
+        List<Node> order = numberNodes();
+        Map<Node, Integer> ids = new IdentityHashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            ids.put(order.get(i), i);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(size);
+            out.writeInt(order.size());
+            for (Node node : order) {
+                if (node.isLeaf()) {
+                    out.writeByte(0);
+                    out.writeInt(node.rgb);
+                    out.writeDouble(node.luminance);
+                } else {
+                    out.writeByte(1);
+                    out.writeInt(ids.get(node.NO));
+                    out.writeInt(ids.get(node.NE));
+                    out.writeInt(ids.get(node.SE));
+                    out.writeInt(ids.get(node.SO));
+                }
+            }
+        }
+    }
+
+    /**
+     * Charge un DAG sauvegardé par save()
+     * Complexité : O(u) où u = nombre de nœuds distincts
+     */
+    public static QuadtreeDAG load(String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Fichier DAG invalide : " + filename);
+            }
+            QuadtreeDAG dag = new QuadtreeDAG(in.readInt(), in.readInt(), in.readInt());
+            Node[] nodes = new Node[in.readInt()];
+            for (int i = 0; i < nodes.length; i++) {
+                if (in.readByte() == 0) {
+                    nodes[i] = dag.intern(new Node(in.readInt(), in.readDouble()));
+                } else {
+                    Node no = nodes[in.readInt()], ne = nodes[in.readInt()];
+                    Node se = nodes[in.readInt()], so = nodes[in.readInt()];
+                    nodes[i] = dag.intern(new Node(no, ne, se, so));
+                }
+            }
+            if (nodes.length == 0) {
+                throw new IOException("Fichier DAG vide : " + filename);
+            }
+            dag.root = nodes[nodes.length - 1];
+            return dag;
+        }
+    }
+
+    private static int red(int rgb) { return (rgb >> 16) & 0xFF; }
+    private static int green(int rgb) { return (rgb >> 8) & 0xFF; }
+    private static int blue(int rgb) { return rgb & 0xFF; }
+}
@@ -6,21 +6,28 @@ import java.util.List;
 /**
  * Classe représentant un R-quadtree pour la compression d'images
  * Avec compressions Lambda (qualité) et Phi (poids)
+ * 
+ * Les nœuds sont copiés à l'écriture : chaque arbre ne modifie que les nœuds qu'il a créés
+ * (même jeton owner) et copie les autres. fork() produit ainsi en O(1) une nouvelle version
+ * qui partage tous ses nœuds avec l'arbre d'origine
  */
 public class RQuadtree {
     
     // Nœud interne du R-quadtree
-    private static class Node {
+    static class Node {
         Color color;      // Couleur moyenne du nœud
         int x, y;         // Coordonnées du coin supérieur gauche
         int size;         // Taille du carré (largeur = hauteur)
         double luminance; // Luminance du nœud
+        float minLum, maxLum; // Luminances extrêmes du sous-arbre (pyramide min/max, arrondies vers l'extérieur)
         Node NO, NE, SE, SO; // 4 fils (Nord-Ouest, Nord-Est, Sud-Est, Sud-Ouest)
+        final Object owner;  // Jeton de l'arbre autorisé à modifier ce nœud en place
         
-        Node(int x, int y, int size) {
+        Node(int x, int y, int size, Object owner) {
             this.x = x;
             this.y = y;
             this.size = size;
+            this.owner = owner;
         }
         
         boolean isLeaf() {
@@ -36,16 +43,61 @@ public class RQuadtree {
                 this.luminance = 0.2126 * R + 0.7152 * G + 0.0722 * B;
             }
         }
+        
+        // Bornes de luminance d'une feuille : sa propre luminance
+        void leafBounds() {
+            minLum = floor(luminance);
+            maxLum = ceil(luminance);
+        }
+        
+        // Bornes de luminance d'un nœud interne : celles de ses fils et sa propre luminance
+        void childBounds() {
+            minLum = floor(luminance);
+            maxLum = ceil(luminance);
+            include(NO);
+            include(NE);
+            include(SE);
+            include(SO);
+        }
+        
+        private void include(Node child) {
+            if (child != null) {
+                minLum = Math.min(minLum, child.minLum);
+                maxLum = Math.max(maxLum, child.maxLum);
+            }
+        }
+        
+        // Plus grand float ≤ v
+        private static float floor(double v) {
+            float f = (float) v;
+            return f > v ? Math.nextDown(f) : f;
+        }
+        
+        // Plus petit float ≥ v
+        private static float ceil(double v) {
+            float f = (float) v;
+            return f < v ? Math.nextUp(f) : f;
+        }
     }
     
     private Node root;
     private int width, height;
+    private Object owner = new Object(); // Jeton de propriété des nœuds modifiables en place
+    private long mergeCount, candidateCount; // Compteurs de la dernière compression (événements JFR)
     
     /**
      * Constructeur : construit le R-quadtree à partir d'une image PNG
      * Complexité : O(n) où n = nombre de pixels de l'image
      */
     public RQuadtree(ImagePNG img) {
+        this((PixelSource) img);
+    }
+    
+    /**
+     * Constructeur à partir de toute source de pixels (image PNG, raster brut projeté en mémoire)
+     * Complexité : O(n) où n = nombre de pixels de l'image
+     */
+    public RQuadtree(PixelSource img) {
         this.width = img.width();
         this.height = img.height();
         
@@ -56,26 +108,100 @@ public class RQuadtree {
             size *= 2;
         }
         
+        CompressionEvents.TreeBuild event = new CompressionEvents.TreeBuild();
+        event.begin();
         this.root = buildTree(img, 0, 0, size);
+        event.end();
+        if (event.shouldCommit()) {
+            event.width = width;
+            event.height = height;
+            event.nodes = getTotalNodeCount();
+            event.leaves = getLeafCount();
+            event.commit();
+        }
+    }
+    
+    /**
+     * Constructeur de copie paresseuse : partage la racine de base (voir fork)
+     */
+    private RQuadtree(RQuadtree base) {
+        this.root = base.root;
+        this.width = base.width;
+        this.height = base.height;
+    }
+    
+    /**
+     * Crée une nouvelle version de l'arbre qui partage tous ses nœuds avec celui-ci
+     * Les deux arbres reçoivent un nouveau jeton : toute modification ultérieure de l'un
+     * copie les nœuds touchés au lieu de les modifier, l'autre reste donc inchangé
+     * Plusieurs versions peuvent ensuite être compressées en parallèle
+     * Complexité : O(1)
+     */
+    public synchronized RQuadtree fork() {
+        this.owner = new Object();
+        return new RQuadtree(this);
+    }
+    
+    /**
+     * Version persistante de compressLambda : retourne un nouvel arbre compressé,
+     * cet arbre n'est pas modifié et partage avec le résultat les sous-arbres non fusionnés
+     * Complexité : O(m) où m = nombre de nœuds de l'arbre
+     */
+    public RQuadtree withLambda(double lambda) {
+        RQuadtree version = fork();
+        version.compressLambda(lambda);
+        return version;
+    }
+    
+    /**
+     * Version persistante de compressPhi
+     * Complexité : celle de compressPhi
+     */
+    public RQuadtree withPhi(int phi) {
+        RQuadtree version = fork();
+        version.compressPhi(phi);
+        return version;
+    }
+    
+    /**
+     * Retourne le nœud s'il appartient à cet arbre, sinon une copie qui lui appartient
+     * Le parent doit ensuite pointer vers la valeur retournée
+     * Complexité : O(1)
+     */
+    private Node editable(Node node) {
+        if (node.owner == owner) {
+            return node;
+        }
+        Node copy = new Node(node.x, node.y, node.size, owner);
+        copy.color = node.color;
+        copy.luminance = node.luminance;
+        copy.minLum = node.minLum;
+        copy.maxLum = node.maxLum;
+        copy.NO = node.NO;
+        copy.NE = node.NE;
+        copy.SE = node.SE;
+        copy.SO = node.SO;
+        return copy;
     }
     
     /**
      * Construction récursive du R-quadtree
      * Complexité : O(n) où n = nombre de pixels dans la région
      */
-    private Node buildTree(ImagePNG img, int x, int y, int size) {
-        Node node = new Node(x, y, size);
+    private Node buildTree(PixelSource img, int x, int y, int size) {
+        Node node = new Node(x, y, size, owner);
         
         // Si la taille est 1, c'est une feuille
         if (size == 1) {
             if (x < width && y < height) {
-                node.color = img.getPixel(x, y);
+                node.color = new Color(img.rgb(x, y));
                 node.calculateLuminance();
             } else {
                 // Pixel hors de l'image -> couleur par défaut (blanc)
                 node.color = Color.WHITE;
                 node.luminance = 1.0;
             }
+            node.leafBounds();
             return node;
         }
         
@@ -118,10 +244,11 @@ public class RQuadtree {
         calculateAverageColor(node);
         // Supprimer les fils
         node.NO = node.NE = node.SE = node.SO = null;
+        node.leafBounds();
     }
     
     /**
-     * Calcule la couleur moyenne d'un nœud à partir de ses fils
+     * Calcule la couleur moyenne d'un nœud à partir de ses fils, et ses bornes de luminance
      * Complexité : O(1)
      */
     private void calculateAverageColor(Node node) {
@@ -135,30 +262,146 @@ public class RQuadtree {
         
         node.color = new Color(r / 4, g / 4, b / 4);
         node.luminance = lum / 4;
+        node.childBounds();
+    }
+    
+    /**
+     * Modifie la couleur d'un pixel
+     * Complexité : O(h) où h = profondeur de l'arbre
+     */
+    public void setPixel(int x, int y, Color color) {
+        checkInside(x, y);
+        fillRect(x, y, 1, 1, color);
+    }
+    
+    /**
+     * Peint le rectangle (x, y, w, h), restreint à l'image, avec une couleur uniforme
+     * Les feuilles traversées par le bord du rectangle sont découpées, puis les moyennes
+     * sont recalculées en remontant et les fils redevenus homogènes sont fusionnés
+     * Complexité : O(h × b) où b = nombre de nœuds coupés par le bord du rectangle
+     */
+    public void fillRect(int x, int y, int w, int h, Color color) {
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = (int) Math.min((long) x + w, width), y1 = (int) Math.min((long) y + h, height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        Color opaque = new Color(color.getRGB() & 0xFFFFFF);
+        root = fillRectRecursive(root, x0, y0, x1, y1, opaque);
+    }
+    
+    private Node fillRectRecursive(Node node, int x0, int y0, int x1, int y1, Color color) {
+        if (x1 <= node.x || y1 <= node.y || x0 >= node.x + node.size || y0 >= node.y + node.size) {
+            return node; // Aucune intersection
+        }
+        
+        node = editable(node);
+        if (x0 <= node.x && y0 <= node.y && x1 >= node.x + node.size && y1 >= node.y + node.size) {
+            // Nœud entièrement recouvert : il devient une feuille de la nouvelle couleur
+            node.NO = node.NE = node.SE = node.SO = null;
+            node.color = color;
+            node.calculateLuminance();
+            node.leafBounds();
+            return node;
+        }
+        
+        if (node.isLeaf()) {
+            splitLeaf(node);
+        }
+        
+        node.NO = fillRectRecursive(node.NO, x0, y0, x1, y1, color);
+        node.NE = fillRectRecursive(node.NE, x0, y0, x1, y1, color);
+        node.SE = fillRectRecursive(node.SE, x0, y0, x1, y1, color);
+        node.SO = fillRectRecursive(node.SO, x0, y0, x1, y1, color);
+        
+        // Recalculer la couleur moyenne et la luminance, fusionner si les fils sont homogènes
+        if (areChildrenHomogeneous(node)) {
+            mergeNode(node);
+        } else {
+            calculateAverageColor(node);
+        }
+        return node;
+    }
+    
+    /**
+     * Découpe une feuille en 4 fils de même couleur et de même luminance
+     * Complexité : O(1)
+     */
+    private void splitLeaf(Node node) {
+        int halfSize = node.size / 2;
+        node.NO = new Node(node.x, node.y, halfSize, owner);
+        node.NE = new Node(node.x + halfSize, node.y, halfSize, owner);
+        node.SE = new Node(node.x + halfSize, node.y + halfSize, halfSize, owner);
+        node.SO = new Node(node.x, node.y + halfSize, halfSize, owner);
+        for (Node child : new Node[] { node.NO, node.NE, node.SE, node.SO }) {
+            child.color = node.color;
+            child.luminance = node.luminance;
+            child.leafBounds();
+        }
     }
     
     /**
      * Compression à qualité contrôlée (Lambda)
      * Lambda ∈ [0, 255] fixe la dégradation de luminance maximale autorisée
-     * Complexité : O(m) où m = nombre de nœuds de l'arbre
+     * La descente s'arrête sur tout sous-arbre dont les luminances tiennent dans un écart ≤ lambda :
+     * la fusion ascendante le réduirait entièrement, il est donc fusionné d'un coup
+     * Complexité : O(k) où k = nombre de nœuds au-dessus des sous-arbres fusionnés, O(m) au pire
      */
     public void compressLambda(double lambda) {
         if (lambda < 0 || lambda > 255) {
             throw new IllegalArgumentException("Lambda doit être entre 0 et 255");
         }
-        compressLambdaRecursive(root, lambda / 255.0); // Normaliser lambda
+        CompressionEvents.Compress event = new CompressionEvents.Compress();
+        int leavesBefore = event.isEnabled() ? getLeafCount() : 0;
+        mergeCount = candidateCount = 0;
+        event.begin();
+        root = compressLambdaRecursive(root, lambda / 255.0); // Normaliser lambda
+        event.end();
+        commitCompression(event, "lambda", lambda, leavesBefore);
+    }
+    
+    // Complète et enregistre l'événement d'une compression s'il doit l'être
+    private void commitCompression(CompressionEvents.Compress event, String method, double parameter, int leavesBefore) {
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.parameter = parameter;
+            event.leavesBefore = leavesBefore;
+            event.leavesAfter = getLeafCount();
+            event.merges = mergeCount;
+            event.candidatesScanned = candidateCount;
+            event.commit();
+        }
     }
     
-    private void compressLambdaRecursive(Node node, double lambda) {
+    private Node compressLambdaRecursive(Node node, double lambda) {
         if (node == null || node.isLeaf()) {
-            return;
+            return node;
+        }
+        
+        // Toutes les luminances du sous-arbre sont dans [minLum, maxLum] : chaque écart fils/parent
+        // testé par la fusion ascendante est ≤ maxLum - minLum, le sous-arbre fusionne entièrement
+        // (couleur et luminance inchangées : la moyenne des fils est déjà celle du nœud)
+        double range = (double) node.maxLum - node.minLum;
+        if (range <= lambda) {
+            candidateCount++;
+            CompressionEvents.merge(mergeCount++, "lambda", node.x, node.y, node.size, range);
+            node = editable(node);
+            mergeNode(node);
+            return node;
         }
         
         // Récursion sur les fils
-        compressLambdaRecursive(node.NO, lambda);
-        compressLambdaRecursive(node.NE, lambda);
-        compressLambdaRecursive(node.SE, lambda);
-        compressLambdaRecursive(node.SO, lambda);
+        Node no = compressLambdaRecursive(node.NO, lambda);
+        Node ne = compressLambdaRecursive(node.NE, lambda);
+        Node se = compressLambdaRecursive(node.SE, lambda);
+        Node so = compressLambdaRecursive(node.SO, lambda);
+        if (no != node.NO || ne != node.NE || se != node.SE || so != node.SO) {
+            node = editable(node);
+            node.NO = no;
+            node.NE = ne;
+            node.SE = se;
+            node.SO = so;
+        }
         
         // Vérifier si on peut fusionner (tous les fils sont des feuilles)
         if (node.NO.isLeaf() && node.NE.isLeaf() && node.SE.isLeaf() && node.SO.isLeaf()) {
@@ -171,10 +414,14 @@ public class RQuadtree {
             maxDiff = Math.max(maxDiff, Math.abs(node.SO.luminance - avgLum));
             
             // Si la différence est acceptable, fusionner
+            candidateCount++;
             if (maxDiff <= lambda) {
+                CompressionEvents.merge(mergeCount++, "lambda", node.x, node.y, node.size, maxDiff);
+                node = editable(node);
                 mergeNode(node);
             }
         }
+        return node;
     }
     
     /**
@@ -187,14 +434,48 @@ public class RQuadtree {
             throw new IllegalArgumentException("Phi doit être > 0");
         }
         
+        CompressionEvents.Compress event = new CompressionEvents.Compress();
+        int leavesBefore = event.isEnabled() ? getLeafCount() : 0;
+        mergeCount = candidateCount = 0;
+        event.begin();
         while (countLeaves(root) > phi) {
             // Trouver le nœud avec la plus petite différence de luminance
             Node nodeToMerge = findBestNodeToMerge(root);
             if (nodeToMerge == null) break;
             
             // Fusionner ce nœud (calcule automatiquement la moyenne)
-            mergeNode(nodeToMerge);
+            CompressionEvents.merge(mergeCount++, "phi", nodeToMerge.x, nodeToMerge.y, nodeToMerge.size,
+                                    calculateLuminanceVariance(nodeToMerge));
+            root = mergeAt(root, nodeToMerge);
+        }
+        event.end();
+        commitCompression(event, "phi", phi, leavesBefore);
+    }
+    
+    /**
+     * Fusionne target en copiant les nœuds du chemin depuis node qui n'appartiennent pas à cet arbre
+     * Retourne la nouvelle version de node
+     * Complexité : O(h) où h = profondeur de l'arbre
+     */
+    private Node mergeAt(Node node, Node target) {
+        if (node == target) {
+            node = editable(node);
+            mergeNode(node);
+            return node;
         }
+        
+        int half = node.size / 2;
+        boolean east = target.x >= node.x + half;
+        boolean south = target.y >= node.y + half;
+        node = editable(node);
+        if (south) {
+            if (east) node.SE = mergeAt(node.SE, target);
+            else node.SO = mergeAt(node.SO, target);
+        } else {
+            if (east) node.NE = mergeAt(node.NE, target);
+            else node.NO = mergeAt(node.NO, target);
+        }
+        return node;
     }
     
     /**
@@ -205,6 +486,7 @@ public class RQuadtree {
         List<Node> candidates = new ArrayList<>();
         collectMergeableCandidates(node, candidates);
         
+        candidateCount += candidates.size();
         if (candidates.isEmpty()) return null;
         
         Node best = candidates.get(0);
@@ -257,54 +539,310 @@ public class RQuadtree {
      * Complexité : O(n) où n = nombre de pixels
      */
     public ImagePNG toPNG() throws IOException {
-        // Créer une image temporaire blanche
-        java.awt.image.BufferedImage buffImg = new java.awt.image.BufferedImage(
-            width, height, java.awt.image.BufferedImage.TYPE_INT_RGB);
-        
-        // Remplir en blanc
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                buffImg.setRGB(x, y, Color.WHITE.getRGB());
-            }
+        // Remplir un tampon RGB à partir du quadtree (sans fichier temporaire,
+        // plusieurs versions peuvent donc être rendues en parallèle)
+        CompressionEvents.Render event = new CompressionEvents.Render();
+        event.begin();
+        int[] rgb = new int[width * height];
+        fillImage(root, rgb);
+        ImagePNG img = new ImagePNG(width, height, rgb);
+        event.end();
+        if (event.shouldCommit()) {
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+        return img;
+    }
+    
+    /**
+     * Convertit le R-quadtree en image à palette, dont la palette est l'AVL des couleurs des feuilles
+     * Le PNG écrit est alors en couleurs indexées (1, 2, 4 ou 8 bits par pixel au lieu de 24) :
+     * fichier plus petit et encodage plus rapide, pour exactement les mêmes pixels que toPNG()
+     * Si l'AVL a plus de 256 couleurs, l'image est en couleurs vraies (comme toPNG())
+     * Complexité : O(n + m log c) où n = nombre de pixels, m = nombre de feuilles, c = nombre de couleurs
+     */
+    public ImagePNG toPNG(AVL colors) throws IOException {
+        if (colors.isEmpty() || colors.size() > 256) {
+            return toPNG();
+        }
+        CompressionEvents.Render event = new CompressionEvents.Render();
+        event.begin();
+        // Parcours infixe de l'AVL : codes hexadécimaux sur 6 chiffres, donc déjà triés par valeur RGB
+        List<String> hex = colors.getAllColors();
+        int[] palette = new int[hex.size()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = Integer.parseInt(hex.get(i), 16);
+        }
+        byte[] indices = new byte[width * height];
+        fillIndexed(root, palette, indices);
+        ImagePNG img = new ImagePNG(width, height, palette, indices);
+        event.end();
+        if (event.shouldCommit()) {
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+        return img;
+    }
+    
+    /**
+     * Rendu à échelle réduite : l'image est divisée par 2^scaleShift dans chaque dimension
+     * Chaque pixel de sortie prend la couleur moyenne du nœud de taille 2^scaleShift qui le couvre,
+     * l'arbre n'est donc parcouru que jusqu'à la profondeur log2(taille) - scaleShift
+     * Complexité : O(p) où p = nombre de pixels de l'image réduite
+     */
+    public ImagePNG toPNG(int scaleShift) {
+        if (scaleShift < 0 || scaleShift > 31 || (1L << scaleShift) > root.size) { // 1L << 64 vaut 1 : borner d'abord
+            throw new IllegalArgumentException("Le facteur de réduction doit être entre 0 et log2(" + root.size + ")");
+        }
+        int outW = ((width - 1) >> scaleShift) + 1;
+        int outH = ((height - 1) >> scaleShift) + 1;
+        int[] rgb = new int[outW * outH];
+        renderSamples(root, 0, 0, outW << scaleShift, outH << scaleShift, rgb, outW, outH, 1 << scaleShift);
+        return new ImagePNG(outW, outH, rgb);
+    }
+    
+    /**
+     * Rendu aux dimensions demandées (vignette) à partir des couleurs moyennes des nœuds
+     * La descente s'arrête dès qu'un nœud ne couvre pas plus d'un pixel de sortie
+     * Complexité : O(p) où p = targetWidth × targetHeight
+     */
+    public ImagePNG toPNG(int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            throw new IllegalArgumentException("Les dimensions de sortie doivent être > 0");
+        }
+        int[] rgb = new int[targetWidth * targetHeight];
+        renderSamples(root, 0, 0, width, height, rgb, targetWidth, targetHeight,
+                      footprint(width, height, targetWidth, targetHeight));
+        return new ImagePNG(targetWidth, targetHeight, rgb);
+    }
+    
+    /**
+     * Rendu d'une fenêtre (vx, vy, vw, vh) de l'image dans un tampon fourni par l'appelant
+     * Le tampon out (ligne par ligne, outW × outH pixels RGB) peut être réutilisé d'une image à l'autre :
+     * aucune allocation n'est faite, les sous-arbres hors de la fenêtre sont ignorés
+     * et les pixels hors de l'image sont peints en blanc
+     * Complexité : O(p) où p = outW × outH
+     */
+    public void render(int vx, int vy, int vw, int vh, int[] out, int outW, int outH) {
+        if (vw <= 0 || vh <= 0 || outW <= 0 || outH <= 0) {
+            throw new IllegalArgumentException("La fenêtre et la sortie doivent avoir des dimensions > 0");
+        }
+        if (out.length < outW * outH) {
+            throw new IllegalArgumentException("Tampon trop petit : " + out.length + " < " + outW * outH);
         }
         
-        // Sauvegarder temporairement
-        String tempFile = "temp_quadtree.png";
-        javax.imageio.ImageIO.write(buffImg, "png", new java.io.File(tempFile));
-        
-        // Charger avec ImagePNG
-        ImagePNG result = new ImagePNG(tempFile);
+        // Les échantillons hors du carré racine ne sont couverts par aucun nœud
+        int i0 = firstSample(-(long) vx, vw, outW), i1 = firstSample((long) root.size - vx, vw, outW);
+        int j0 = firstSample(-(long) vy, vh, outH), j1 = firstSample((long) root.size - vy, vh, outH);
+        int white = Color.WHITE.getRGB();
+        for (int j = 0; j < outH; j++) {
+            if (j < j0 || j >= j1 || i0 >= i1) {
+                java.util.Arrays.fill(out, j * outW, (j + 1) * outW, white);
+            } else {
+                java.util.Arrays.fill(out, j * outW, j * outW + i0, white);
+                java.util.Arrays.fill(out, j * outW + i1, (j + 1) * outW, white);
+            }
+        }
         
-        // Remplir l'image à partir du quadtree
-        fillImage(root, result);
+        renderSamples(root, vx, vy, vw, vh, out, outW, outH, footprint(vw, vh, outW, outH));
+    }
+    
+    /**
+     * Plus grande taille de nœud (puissance de 2) ne couvrant qu'un pixel de sortie
+     */
+    static int footprint(int vw, int vh, int outW, int outH) {
+        int pixel = Math.max(1, Math.min(vw / outW, vh / outH));
+        return Integer.highestOneBit(pixel);
+    }
+    
+    /**
+     * Échantillonne le quadtree : le pixel de sortie (i, j) prend la couleur du point
+     * (vx + (2i+1)·vw / 2outW, vy + (2j+1)·vh / 2outH) de l'image source
+     * Un nœud de taille ≤ stop est peint avec sa couleur moyenne sans descendre plus bas
+     * Complexité : O(nombre de nœuds ayant au moins un échantillon)
+     */
+    private void renderSamples(Node node, int vx, int vy, int vw, int vh, int[] out, int outW, int outH, int stop) {
+        int i0 = firstSample((long) node.x - vx, vw, outW), i1 = firstSample((long) node.x + node.size - vx, vw, outW);
+        int j0 = firstSample((long) node.y - vy, vh, outH), j1 = firstSample((long) node.y + node.size - vy, vh, outH);
+        if (i0 >= i1 || j0 >= j1) {
+            return; // Aucun échantillon dans ce nœud
+        }
         
-        // Nettoyer le fichier temporaire
-        new java.io.File(tempFile).delete();
+        if (node.isLeaf() || node.size <= stop) {
+            int rgb = node.color.getRGB();
+            for (int j = j0; j < j1; j++) {
+                java.util.Arrays.fill(out, j * outW + i0, j * outW + i1, rgb);
+            }
+            return;
+        }
         
-        return result;
+        renderSamples(node.NO, vx, vy, vw, vh, out, outW, outH, stop);
+        renderSamples(node.NE, vx, vy, vw, vh, out, outW, outH, stop);
+        renderSamples(node.SE, vx, vy, vw, vh, out, outW, outH, stop);
+        renderSamples(node.SO, vx, vy, vw, vh, out, outW, outH, stop);
+    }
+    
+    /**
+     * Plus petit indice i ∈ [0, n] dont l'échantillon floor((2i+1)·v / 2n) est ≥ d
+     * Complexité : O(1)
+     */
+    static int firstSample(long d, long v, long n) {
+        if (d <= 0) return 0;
+        long odd = (2 * n * d + v - 1) / v;  // plus petit 2i+1 tel que (2i+1)·v ≥ 2n·d
+        long i = odd / 2;                    // arrondi supérieur de (odd - 1) / 2
+        return (int) Math.min(i, n);
     }
     
     /**
      * Remplit récursivement l'image à partir du R-quadtree
      * Complexité : O(n) où n = nombre de pixels
      */
-    private void fillImage(Node node, ImagePNG img) {
-        if (node == null) return;
+    private void fillImage(Node node, int[] rgb) {
+        if (node == null || node.x >= width || node.y >= height) return;
         
         if (node.isLeaf()) {
             // Remplir tous les pixels de cette région avec la couleur du nœud
-            for (int i = 0; i < node.size && (node.x + i) < width; i++) {
-                for (int j = 0; j < node.size && (node.y + j) < height; j++) {
-                    img.setPixel(node.x + i, node.y + j, node.color);
-                }
+            int xEnd = Math.min(node.x + node.size, width);
+            int yEnd = Math.min(node.y + node.size, height);
+            int color = node.color.getRGB();
+            for (int j = node.y; j < yEnd; j++) {
+                java.util.Arrays.fill(rgb, j * width + node.x, j * width + xEnd, color);
             }
         } else {
             // Récursion sur les fils
-            fillImage(node.NO, img);
-            fillImage(node.NE, img);
-            fillImage(node.SE, img);
-            fillImage(node.SO, img);
+            fillImage(node.NO, rgb);
+            fillImage(node.NE, rgb);
+            fillImage(node.SE, rgb);
+            fillImage(node.SO, rgb);
+        }
+    }
+    
+    /**
+     * Remplit récursivement le tableau d'indices de palette (recherche dichotomique par feuille)
+     * Complexité : O(n + m log c)
+     */
+    private void fillIndexed(Node node, int[] palette, byte[] indices) {
+        if (node == null || node.x >= width || node.y >= height) return;
+        
+        if (node.isLeaf()) {
+            int index = java.util.Arrays.binarySearch(palette, node.color.getRGB() & 0xFFFFFF);
+            if (index < 0) {
+                throw new IllegalArgumentException("Couleur absente de la palette : " + ImagePNG.colorToHex(node.color));
+            }
+            int xEnd = Math.min(node.x + node.size, width);
+            int yEnd = Math.min(node.y + node.size, height);
+            for (int j = node.y; j < yEnd; j++) {
+                java.util.Arrays.fill(indices, j * width + node.x, j * width + xEnd, (byte) index);
+            }
+        } else {
+            fillIndexed(node.NO, palette, indices);
+            fillIndexed(node.NE, palette, indices);
+            fillIndexed(node.SE, palette, indices);
+            fillIndexed(node.SO, palette, indices);
+        }
+    }
+    
+    /**
+     * Couleur du pixel (x, y), obtenue en descendant jusqu'à la feuille qui le contient
+     * Complexité : O(h) où h = profondeur de l'arbre
+     */
+    public Color colorAt(int x, int y) {
+        checkInside(x, y);
+        return findLeaf(x, y).color;
+    }
+    
+    /**
+     * Couleurs RGB d'une série de pixels
+     * coords contient les coordonnées à la suite : x0, y0, x1, y1, ...
+     * Complexité : O(k × h) où k = nombre de pixels demandés, h = profondeur de l'arbre
+     */
+    public int[] colorsAt(int[] coords) {
+        if (coords.length % 2 != 0) {
+            throw new IllegalArgumentException("Les coordonnées doivent être données par paires (x, y)");
+        }
+        int[] result = new int[coords.length / 2];
+        for (int i = 0; i < result.length; i++) {
+            int x = coords[2 * i], y = coords[2 * i + 1];
+            checkInside(x, y);
+            result[i] = findLeaf(x, y).color.getRGB() & 0xFFFFFF;
+        }
+        return result;
+    }
+    
+    /**
+     * Descend de la racine jusqu'à la feuille contenant le pixel (x, y)
+     * Complexité : O(h) où h = profondeur de l'arbre
+     */
+    private Node findLeaf(int x, int y) {
+        Node node = root;
+        while (!node.isLeaf()) {
+            int half = node.size / 2;
+            boolean east = x >= node.x + half;
+            boolean south = y >= node.y + half;
+            if (south) {
+                node = east ? node.SE : node.SO;
+            } else {
+                node = east ? node.NE : node.NO;
+            }
+        }
+        return node;
+    }
+    
+    private void checkInside(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IndexOutOfBoundsException("Pixel hors de l'image : (" + x + ", " + y + ")");
+        }
+    }
+    
+    /**
+     * Couleur moyenne du rectangle (x, y, w, h), restreint à l'image
+     * Un nœud entièrement contenu dans le rectangle contribue par sa couleur moyenne,
+     * sans descendre jusqu'aux pixels
+     * Les moyennes des nœuds étant tronquées à l'entier, le résultat peut différer
+     * de la moyenne exacte des pixels d'une unité par composante et par niveau
+     * Complexité : O(b × h) où b = nombre de feuilles coupées par le bord du rectangle
+     */
+    public Color regionMean(int x, int y, int w, int h) {
+        int x0 = Math.max(x, 0), y0 = Math.max(y, 0);
+        int x1 = (int) Math.min((long) x + w, width), y1 = (int) Math.min((long) y + h, height);
+        if (x0 >= x1 || y0 >= y1) {
+            throw new IllegalArgumentException("Le rectangle ne recouvre aucun pixel de l'image");
         }
+        
+        long[] sums = new long[3];
+        accumulateRegion(root, x0, y0, x1, y1, sums);
+        long area = (long) (x1 - x0) * (y1 - y0);
+        return new Color((int) ((sums[0] + area / 2) / area),
+                         (int) ((sums[1] + area / 2) / area),
+                         (int) ((sums[2] + area / 2) / area));
+    }
+    
+    /**
+     * Ajoute à sums les composantes (R, V, B) pondérées par la surface d'intersection
+     * Complexité : O(nœuds coupés par le bord du rectangle)
+     */
+    private void accumulateRegion(Node node, int x0, int y0, int x1, int y1, long[] sums) {
+        int ix0 = Math.max(x0, node.x), iy0 = Math.max(y0, node.y);
+        int ix1 = Math.min(x1, node.x + node.size), iy1 = Math.min(y1, node.y + node.size);
+        if (ix0 >= ix1 || iy0 >= iy1) {
+            return; // Aucune intersection
+        }
+        
+        long overlap = (long) (ix1 - ix0) * (iy1 - iy0);
+        if (node.isLeaf() || overlap == (long) node.size * node.size) {
+            // Feuille ou nœud entièrement contenu : sa couleur moyenne suffit
+            sums[0] += overlap * node.color.getRed();
+            sums[1] += overlap * node.color.getGreen();
+            sums[2] += overlap * node.color.getBlue();
+            return;
+        }
+        
+        accumulateRegion(node.NO, x0, y0, x1, y1, sums);
+        accumulateRegion(node.NE, x0, y0, x1, y1, sums);
+        accumulateRegion(node.SE, x0, y0, x1, y1, sums);
+        accumulateRegion(node.SO, x0, y0, x1, y1, sums);
     }
     
     /**
@@ -338,6 +876,21 @@ public class RQuadtree {
         }
     }
     
+    /**
+     * Accès à la racine pour les représentations dérivées (QuadtreeDAG)
+     */
+    Node getRoot() {
+        return root;
+    }
+    
+    int getWidth() {
+        return width;
+    }
+    
+    int getHeight() {
+        return height;
+    }
+    
     /**
      * Compte le nombre de feuilles (pour affichage)
      * Complexité : O(m) où m = nombre de nœuds
@@ -346,6 +899,19 @@ public class RQuadtree {
         return countLeaves(root);
     }
     
+    /**
+     * Compte le nombre total de nœuds (internes et feuilles), pour estimer la mémoire occupée
+     * Complexité : O(m) où m = nombre de nœuds
+     */
+    public int getTotalNodeCount() {
+        return countNodes(root);
+    }
+    
+    private int countNodes(Node node) {
+        if (node == null) return 0;
+        return 1 + countNodes(node.NO) + countNodes(node.NE) + countNodes(node.SE) + countNodes(node.SO);
+    }
+    
     /**
      * Compte récursivement le nombre de feuilles dans l'arbre
      * Complexité : O(m) où m = nombre de nœuds
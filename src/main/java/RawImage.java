@@ -0,0 +1,285 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Raster brut (non compressé) projeté en mémoire par FileChannel.map :
+ * aucun décodage, les pages du fichier sont chargées par le système à la première lecture
+ * Les rasters de plus de 2 Go sont projetés par blocs de lignes
+ * open() projette un fichier existant en lecture seule ; create() crée un raster RVB modifiable
+ * par setRGB, dont les pages modifiées sont écrites dans le fichier par le système
+ *
+ * Formats (8 bits par composante) :
+ * - PPM binaire (.ppm, P6) : "P6 <largeur> <hauteur> 255" puis les pixels RVB
+ * - PAM (.pam, P7) : TUPLTYPE RGB, RGB_ALPHA, GRAYSCALE ou GRAYSCALE_ALPHA, MAXVAL 255 ;
+ *   la composante alpha est ignorée (comme pour les PNG)
+ * - Raw (.raw) : en-tête de 12 octets, "RRGB" puis largeur et hauteur (entiers 32 bits gros-boutistes),
+ *   suivi des pixels RVB
+ */
+public class RawImage implements PixelSource {
+
+    private static final byte[] RAW_MAGIC = { 'R', 'R', 'G', 'B' };
+    private static final int RAW_HEADER = 12;
+    private static final int MAX_HEADER = 4096;        // Taille maximale lue pour un en-tête PPM/PAM
+    private static final long MAX_CHUNK = 1L << 30;    // Taille maximale d'un bloc projeté
+
+    private final int width, height;
+    private final int channels;                         // Octets par pixel : 1 à 4
+    private final int rowBytes;
+    private final int rowsPerChunk;
+    private final ByteBuffer[] chunks;
+
+    private RawImage(FileChannel channel, long offset, int width, int height, int channels, String filename) throws IOException {
+        this(channel, FileChannel.MapMode.READ_ONLY, offset, width, height, channels, filename);
+    }
+
+    private RawImage(FileChannel channel, FileChannel.MapMode mode, long offset, int width, int height, int channels,
+                     String filename) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Dimensions invalides : " + width + "x" + height + " (" + filename + ")");
+        }
+        long expected = offset + (long) width * height * channels;
+        if (channel.size() < expected) {
+            throw new IOException("Fichier tronqué : " + channel.size() + " octets au lieu de " + expected + " (" + filename + ")");
+        }
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.rowBytes = width * channels;
+        this.rowsPerChunk = (int) Math.max(1, Math.min(height, MAX_CHUNK / rowBytes));
+        this.chunks = new ByteBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+        for (int i = 0; i < chunks.length; i++) {
+            int rows = Math.min(rowsPerChunk, height - i * rowsPerChunk);
+            chunks[i] = channel.map(mode, offset + (long) i * rowsPerChunk * rowBytes, (long) rows * rowBytes);
+        }
+    }
+
+    /**
+     * Indique si le fichier est un raster brut d'après son extension
+     */
+    public static boolean isRawFile(String filename) {
+        String lower = filename.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".ppm") || lower.endsWith(".pam") || lower.endsWith(".raw");
+    }
+
+    /**
+     * Ouvre un raster PPM, PAM ou raw (format reconnu par son en-tête)
+     * Complexité : O(1) (la projection ne lit pas les pixels)
+     */
+    public static RawImage open(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(MAX_HEADER, channel.size()));
+            while (head.hasRemaining() && channel.read(head) >= 0);  // Début du fichier (en-tête)
+            byte[] bytes = new byte[head.position()];
+            head.flip();
+            head.get(bytes);
+            if (bytes.length >= RAW_HEADER && bytes[0] == 'R' && bytes[1] == 'R' && bytes[2] == 'G' && bytes[3] == 'B') {
+                ByteBuffer dims = ByteBuffer.wrap(bytes, 4, 8);
+                return new RawImage(channel, RAW_HEADER, dims.getInt(), dims.getInt(), 3, filename);
+            }
+            if (bytes.length >= 2 && bytes[0] == 'P' && bytes[1] == '6') {
+                return openPPM(channel, bytes, filename);
+            }
+            if (bytes.length >= 2 && bytes[0] == 'P' && bytes[1] == '7') {
+                return openPAM(channel, bytes, filename);
+            }
+            throw new IOException("Format de raster inconnu (P6, P7 ou RRGB attendu) : " + filename);
+        }
+    }
+
+    // En-tête PPM : "P6", largeur, hauteur et valeur maximale séparés par des blancs (commentaires "#"),
+    // puis un seul blanc avant les pixels
+    private static RawImage openPPM(FileChannel channel, byte[] head, String filename) throws IOException {
+        int[] pos = { 2 };
+        int width = Integer.parseInt(nextToken(head, pos, filename));
+        int height = Integer.parseInt(nextToken(head, pos, filename));
+        int maxval = Integer.parseInt(nextToken(head, pos, filename));
+        if (maxval != 255) {
+            throw new IOException("Seuls les PPM 8 bits (valeur maximale 255) sont pris en charge : " + filename);
+        }
+        return new RawImage(channel, pos[0] + 1, width, height, 3, filename);
+    }
+
+    private static String nextToken(byte[] head, int[] pos, String filename) throws IOException {
+        int i = pos[0];
+        while (i < head.length && (Character.isWhitespace(head[i]) || head[i] == '#')) {
+            if (head[i] == '#') {
+                while (i < head.length && head[i] != '\n') i++;
+            } else {
+                i++;
+            }
+        }
+        int start = i;
+        while (i < head.length && !Character.isWhitespace(head[i])) i++;
+        if (i >= head.length) {
+            throw new IOException("En-tête PPM invalide : " + filename);
+        }
+        pos[0] = i;
+        return new String(head, start, i - start, StandardCharsets.US_ASCII);
+    }
+
+    // En-tête PAM : lignes "CLÉ valeur" jusqu'à "ENDHDR"
+    private static RawImage openPAM(FileChannel channel, byte[] head, String filename) throws IOException {
+        int width = -1, height = -1, depth = -1, maxval = -1;
+        String tupleType = null;
+        int i = 2;
+        while (true) {
+            int end = i;
+            while (end < head.length && head[end] != '\n') end++;
+            if (end >= head.length) {
+                throw new IOException("En-tête PAM invalide (ENDHDR manquant) : " + filename);
+            }
+            String line = new String(head, i, end - i, StandardCharsets.US_ASCII).trim();
+            i = end + 1;
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            if (line.equals("ENDHDR")) break;
+            String[] kv = line.split("\\s+", 2);
+            String value = kv.length > 1 ? kv[1].trim() : "";
+            switch (kv[0]) {
+                case "WIDTH":    width = Integer.parseInt(value); break;
+                case "HEIGHT":   height = Integer.parseInt(value); break;
+                case "DEPTH":    depth = Integer.parseInt(value); break;
+                case "MAXVAL":   maxval = Integer.parseInt(value); break;
+                case "TUPLTYPE": tupleType = value; break;
+                default:         break; // Clé inconnue : ignorée
+            }
+        }
+        if (maxval != 255 || depth < 1 || depth > 4) {
+            throw new IOException("Seuls les PAM 8 bits de profondeur 1 à 4 sont pris en charge : " + filename);
+        }
+        if (tupleType != null && !(tupleType.startsWith("RGB") && depth >= 3) && !(tupleType.startsWith("GRAYSCALE") && depth <= 2)) {
+            throw new IOException("Type de PAM non pris en charge : " + tupleType + " (" + filename + ")");
+        }
+        return new RawImage(channel, i, width, height, depth, filename);
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public int rgb(int x, int y) {
+        ByteBuffer chunk = chunks[y / rowsPerChunk];
+        int i = (y % rowsPerChunk) * rowBytes + x * channels;
+        if (channels >= 3) {
+            return (chunk.get(i) & 0xFF) << 16 | (chunk.get(i + 1) & 0xFF) << 8 | (chunk.get(i + 2) & 0xFF);
+        }
+        return (chunk.get(i) & 0xFF) * 0x010101; // Niveaux de gris
+    }
+
+    /**
+     * Modifie la couleur (0xRRGGBB) du pixel (x, y) d'un raster ouvert par create()
+     * Complexité : O(1)
+     */
+    public void setRGB(int x, int y, int rgb) {
+        ByteBuffer chunk = chunks[y / rowsPerChunk];
+        int i = (y % rowsPerChunk) * rowBytes + x * channels;
+        chunk.put(i, (byte) (rgb >> 16)).put(i + 1, (byte) (rgb >> 8)).put(i + 2, (byte) rgb);
+    }
+
+    // Écriture
+
+    /**
+     * Crée un raster RVB noir de la taille donnée, au format choisi par l'extension,
+     * projeté en lecture et écriture : les pixels sont écrits par setRGB sans tampon sur le tas
+     * Complexité : O(1) (le fichier est agrandi sans écrire les pixels)
+     */
+    public static RawImage create(String filename, int width, int height) throws IOException {
+        byte[] header = header(filename, width, height);
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(0);
+            file.setLength(header.length + (long) width * height * 3);
+            channel.write(ByteBuffer.wrap(header), 0);
+            return new RawImage(channel, FileChannel.MapMode.READ_WRITE, header.length, width, height, 3, filename);
+        }
+    }
+
+    /**
+     * Écrit l'image au format choisi par l'extension (.ppm, .pam ou .raw)
+     * Complexité : O(n) où n = nombre de pixels
+     */
+    public static void write(PixelSource img, String filename) throws IOException {
+        writeRGB(img, header(filename, img.width(), img.height()), filename);
+    }
+
+    public static void writePPM(PixelSource img, String filename) throws IOException {
+        writeRGB(img, headerPPM(img.width(), img.height()), filename);
+    }
+
+    public static void writePAM(PixelSource img, String filename) throws IOException {
+        writeRGB(img, headerPAM(img.width(), img.height()), filename);
+    }
+
+    public static void writeRaw(PixelSource img, String filename) throws IOException {
+        writeRGB(img, headerRaw(img.width(), img.height()), filename);
+    }
+
+    // En-tête du format choisi par l'extension
+    private static byte[] header(String filename, int width, int height) {
+        String lower = filename.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".ppm")) {
+            return headerPPM(width, height);
+        } else if (lower.endsWith(".pam")) {
+            return headerPAM(width, height);
+        } else if (lower.endsWith(".raw")) {
+            return headerRaw(width, height);
+        }
+        throw new IllegalArgumentException("Extension de raster inconnue (.ppm, .pam ou .raw) : " + filename);
+    }
+
+    private static byte[] headerPPM(int width, int height) {
+        return ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] headerPAM(int width, int height) {
+        return ("P7\nWIDTH " + width + "\nHEIGHT " + height
+                + "\nDEPTH 3\nMAXVAL 255\nTUPLTYPE RGB\nENDHDR\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] headerRaw(int width, int height) {
+        ByteBuffer header = ByteBuffer.allocate(RAW_HEADER);
+        header.put(RAW_MAGIC).putInt(width).putInt(height);
+        return header.array();
+    }
+
+    // En-tête puis pixels RVB, écrits par paquets de lignes
+    private static void writeRGB(PixelSource img, byte[] header, String filename) throws IOException {
+        int width = img.width(), rowBytes = width * 3;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(rowBytes, 1 << 20));
+        try (FileChannel channel = FileChannel.open(new File(filename).toPath(), StandardOpenOption.WRITE,
+                                                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.put(header);
+            for (int y = 0; y < img.height(); y++) {
+                if (buffer.remaining() < rowBytes) {
+                    drain(channel, buffer);
+                }
+                for (int x = 0; x < width; x++) {
+                    int rgb = img.rgb(x, y);
+                    buffer.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb);
+                }
+            }
+            drain(channel, buffer);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
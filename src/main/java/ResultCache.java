@@ -0,0 +1,276 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Cache disque des résultats de compression, indexé par le contenu de l'image source
+ * Une entrée = un répertoire <sha256>-<méthode><paramètre>-<format> contenant l'image compressée,
+ * R.txt, AVL.txt et les métriques ; <format> identifie la version du format des sorties et
+ * l'encodeur PNG (préréglage, niveau, filtre) : un résultat produit avec d'autres réglages
+ * n'est jamais renvoyé
+ * La taille totale est tenue à jour à chaque écriture (le répertoire n'est parcouru qu'à
+ * l'ouverture et lors des évictions) ; quand elle dépasse le plafond, les entrées les moins
+ * récemment utilisées sont supprimées jusqu'à EVICT_TARGET du plafond
+ *
+ * Désactivé par défaut ; activé par les propriétés système :
+ *   compression.cache.dir      répertoire du cache
+ *   compression.cache.maxBytes taille maximale en octets (256 Mio par défaut)
+ */
+public class ResultCache {
+
+    private static final String PNG = "image.png", TREE = "R.txt", AVL_TXT = "AVL.txt", METRICS = "metrics.properties";
+
+    // Version du format des sorties : à incrémenter quand les fichiers produits changent pour une même image
+    static final int FORMAT_VERSION = 3;
+
+    // Après une éviction, la taille est ramenée à cette fraction du plafond : les parcours du
+    // répertoire restent rares même quand le cache est plein
+    private static final double EVICT_TARGET = 0.9;
+
+    private static ResultCache shared;
+    private static boolean sharedLoaded;
+
+    /**
+     * Métriques d'une entrée (identiques à celles d'une compression effective)
+     */
+    public static class Entry {
+        final int width, height, leavesBefore, leavesAfter, colors;
+        final double eqm;
+        final File dir;
+
+        Entry(File dir, int width, int height, int leavesBefore, int leavesAfter, int colors, double eqm) {
+            this.dir = dir;
+            this.width = width;
+            this.height = height;
+            this.leavesBefore = leavesBefore;
+            this.leavesAfter = leavesAfter;
+            this.colors = colors;
+            this.eqm = eqm;
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+    private final String format;   // Version du format et réglages de l'encodeur PNG
+    private long totalBytes;       // Taille estimée des entrées (fichiers de ce processus compris)
+
+    public ResultCache(File dir, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("La taille du cache doit être > 0");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire de cache : " + dir);
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.format = "v" + FORMAT_VERSION + "-" + ImagePNG.encoderName();
+        this.totalBytes = scan().total;
+    }
+
+    /**
+     * Cache configuré par les propriétés système, ou null s'il n'est pas activé
+     */
+    public static synchronized ResultCache shared() throws IOException {
+        if (!sharedLoaded) {
+            String path = System.getProperty("compression.cache.dir");
+            if (path != null && !path.isEmpty()) {
+                long maxBytes = Long.parseLong(System.getProperty("compression.cache.maxBytes",
+                                                                  Long.toString(256L * 1024 * 1024)));
+                shared = new ResultCache(new File(path), maxBytes);
+            }
+            sharedLoaded = true;
+        }
+        return shared;
+    }
+
+    /**
+     * Empreinte SHA-256 (hexadécimale) du fichier, lu une seule fois par blocs sans décodage
+     * Complexité : O(t) où t = taille du fichier
+     */
+    public static String hash(String filename) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(filename)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private File entryDir(String hash, BatchCompressor.Variant variant) {
+        return new File(dir, hash + "-" + variant + "-" + format);
+    }
+
+    /**
+     * Cherche une entrée et la marque comme récemment utilisée ; null si absente
+     */
+    public Entry lookup(String hash, BatchCompressor.Variant variant) {
+        File entryDir = entryDir(hash, variant);
+        Properties metrics = new Properties();
+        try (InputStream in = new FileInputStream(new File(entryDir, METRICS))) {
+            metrics.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!format.equals(metrics.getProperty("format"))) {
+            return null; // Produite avec d'autres réglages : traitée comme absente
+        }
+        entryDir.setLastModified(System.currentTimeMillis());
+        try {
+            return new Entry(entryDir,
+                Integer.parseInt(metrics.getProperty("width")),
+                Integer.parseInt(metrics.getProperty("height")),
+                Integer.parseInt(metrics.getProperty("leavesBefore")),
+                Integer.parseInt(metrics.getProperty("leavesAfter")),
+                Integer.parseInt(metrics.getProperty("colors")),
+                Double.parseDouble(metrics.getProperty("eqm")));
+        } catch (RuntimeException e) {
+            return null; // Entrée incomplète ou corrompue : traitée comme absente
+        }
+    }
+
+    /**
+     * Copie les fichiers d'une entrée vers les sorties attendues
+     * Retourne false si l'entrée a disparu entre-temps (éviction concurrente)
+     */
+    public boolean restore(Entry entry, String pngOutput, String txtOutput, String avlOutput) {
+        try {
+            Files.copy(new File(entry.dir, PNG).toPath(), new File(pngOutput).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(new File(entry.dir, TREE).toPath(), new File(txtOutput).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(new File(entry.dir, AVL_TXT).toPath(), new File(avlOutput).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Enregistre un résultat (copie des fichiers produits), puis réduit le cache sous son plafond
+     * L'entrée est préparée dans un répertoire temporaire puis renommée : une entrée visible est complète
+     */
+    public void store(String hash, BatchCompressor.Variant variant, String pngOutput, String txtOutput, String avlOutput,
+                      int width, int height, int leavesBefore, int leavesAfter, int colors, double eqm) throws IOException {
+        File target = entryDir(hash, variant);
+        if (target.isDirectory()) return;
+
+        File tmp = Files.createTempDirectory(dir.toPath(), ".tmp-").toFile();
+        try {
+            Files.copy(new File(pngOutput).toPath(), new File(tmp, PNG).toPath());
+            Files.copy(new File(txtOutput).toPath(), new File(tmp, TREE).toPath());
+            Files.copy(new File(avlOutput).toPath(), new File(tmp, AVL_TXT).toPath());
+            Properties metrics = new Properties();
+            metrics.setProperty("width", Integer.toString(width));
+            metrics.setProperty("height", Integer.toString(height));
+            metrics.setProperty("leavesBefore", Integer.toString(leavesBefore));
+            metrics.setProperty("leavesAfter", Integer.toString(leavesAfter));
+            metrics.setProperty("colors", Integer.toString(colors));
+            metrics.setProperty("eqm", Double.toString(eqm));
+            metrics.setProperty("format", format);
+            try (OutputStream out = new FileOutputStream(new File(tmp, METRICS))) {
+                metrics.store(out, null);
+            }
+            long bytes = entrySize(tmp);
+            if (!tmp.renameTo(target)) {
+                deleteEntry(tmp); // Une autre écriture a gagné la course : son entrée est équivalente
+                return;
+            }
+            added(bytes);
+        } catch (IOException e) {
+            deleteEntry(tmp);
+            throw e;
+        }
+    }
+
+    // Ajoute une entrée au total ; l'éviction n'a lieu que si le plafond est dépassé
+    private synchronized void added(long bytes) {
+        totalBytes += bytes;
+        if (totalBytes > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Supprime les entrées les moins récemment utilisées jusqu'à ramener le cache sous
+     * EVICT_TARGET du plafond ; le total est recalculé (entrées écrites par d'autres processus comprises)
+     * Complexité : O(e log e) où e = nombre d'entrées, amortie sur les écritures qui ont rempli le cache
+     */
+    synchronized void evict() {
+        Scan scan = scan();
+        long total = scan.total;
+        long target = (long) (maxBytes * EVICT_TARGET);
+        if (total > maxBytes) {
+            Integer[] order = new Integer[scan.entries.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparingLong(i -> scan.stamps[i]));
+            for (int i = 0; i < order.length && total > target; i++) {
+                deleteEntry(scan.entries[order[i]]);
+                total -= scan.sizes[order[i]];
+            }
+        }
+        totalBytes = total;
+    }
+
+    /** Taille estimée des entrées du cache, en octets */
+    public synchronized long estimatedBytes() {
+        return totalBytes;
+    }
+
+    // Entrées du répertoire, avec leur taille et leur date de dernière utilisation
+    private static final class Scan {
+        File[] entries;
+        long[] sizes, stamps;
+        long total;
+    }
+
+    private Scan scan() {
+        Scan scan = new Scan();
+        File[] entries = dir.listFiles(f -> f.isDirectory() && !f.getName().startsWith("."));
+        scan.entries = entries == null ? new File[0] : entries;
+        scan.sizes = new long[scan.entries.length];
+        scan.stamps = new long[scan.entries.length];
+        for (int i = 0; i < scan.entries.length; i++) {
+            scan.stamps[i] = scan.entries[i].lastModified();
+            scan.sizes[i] = entrySize(scan.entries[i]);
+            scan.total += scan.sizes[i];
+        }
+        return scan;
+    }
+
+    private static long entrySize(File entry) {
+        long size = 0;
+        File[] files = entry.listFiles();
+        if (files != null) {
+            for (File file : files) size += file.length();
+        }
+        return size;
+    }
+
+    private static void deleteEntry(File entry) {
+        File[] files = entry.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        entry.delete();
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Générateur déterministe d'images de test (aucun fichier volumineux à versionner)
+ * Chaque pixel est une fonction pure de (x, y, graine) : une même graine donne toujours la même image,
+ * et n'importe quelle ligne ou tuile peut être produite indépendamment (images plus grandes que la mémoire)
+ *
+ * Usage : java SyntheticImages <type> <largeur> <hauteur> [graine] <sortie.png|.ppm|.pam|.raw>
+ *         java SyntheticImages --corpus <dossier> [côté max]
+ */
+public class SyntheticImages {
+
+    /**
+     * Types de contenu, choisis pour couvrir les cas favorables et défavorables au R-quadtree
+     */
+    public enum Kind {
+        FLAT,      // Grandes zones uniformes de tailles variées
+        GRADIENT,  // Dégradés continus (linéaire et radial)
+        NOISE,     // Bruit indépendant par pixel (pire cas : aucune fusion possible)
+        TEXT,      // Texte : fond clair, glyphes sombres à bords francs
+        TILES,     // Motif répété de période non puissance de 2
+        PHOTO,     // Statistiques photographiques : bruit lissé multi-échelle et grain fin
+        MIXED      // Mosaïque des types précédents
+    }
+
+    private static final Kind[] MIXED_KINDS = { Kind.FLAT, Kind.GRADIENT, Kind.NOISE, Kind.TEXT, Kind.TILES, Kind.PHOTO };
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Génère une image complète
+     * Complexité : O(l × h)
+     */
+    public static ImagePNG generate(Kind kind, int width, int height, long seed) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensions invalides : " + width + "x" + height);
+        }
+        ImagePNG img = new ImagePNG(width, height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            fillRow(kind, y, width, height, seed, row);
+            img.setRow(y, row);
+        }
+        return img;
+    }
+
+    /**
+     * Génère une image décrite par "<type>-<largeur>[x<hauteur>][-<graine>]", par exemple
+     * "photo-2048", "text-3000x1000" ou "noise-512-7" (graine 42 par défaut)
+     */
+    public static ImagePNG generate(String spec) {
+        String[] parts = spec.toLowerCase(Locale.ROOT).split("-");
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Description attendue : <type>-<largeur>[x<hauteur>][-<graine>]");
+        }
+        Kind kind = Kind.valueOf(parts[0].toUpperCase(Locale.ROOT));
+        String[] size = parts[1].split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = size.length > 1 ? Integer.parseInt(size[1]) : width;
+        long seed = parts.length > 2 ? Long.parseLong(parts[2]) : 42;
+        return generate(kind, width, height, seed);
+    }
+
+    /**
+     * Remplit row (au moins width cases) avec la ligne y de l'image
+     * Complexité : O(l)
+     */
+    public static void fillRow(Kind kind, int y, int width, int height, long seed, int[] row) {
+        for (int x = 0; x < width; x++) {
+            row[x] = rgb(kind, x, y, width, height, seed);
+        }
+    }
+
+    /**
+     * Couleur (0xRRGGBB) du pixel (x, y)
+     * Complexité : O(1)
+     */
+    public static int rgb(Kind kind, int x, int y, int width, int height, long seed) {
+        switch (kind) {
+            case FLAT:     return flat(x, y, seed);
+            case GRADIENT: return gradient(x, y, width, height, seed);
+            case NOISE:    return (int) hash(x, y, 0, seed) & 0xFFFFFF;
+            case TEXT:     return text(x, y, seed);
+            case TILES:    return tiles(x, y, seed);
+            case PHOTO:    return photo(x, y, seed);
+            default:       return mixed(x, y, width, height, seed);
+        }
+    }
+
+    // Types de contenu
+
+    // Blocs uniformes : un bloc de côté s est gardé entier avec probabilité 1/2, sinon subdivisé
+    // Le décalage dépend de la graine, les blocs ne sont donc pas alignés sur les nœuds du quadtree
+    private static int flat(int x, int y, long seed) {
+        int ox = x + (int) (hash(0, 0, 1, seed) & 255);
+        int oy = y + (int) (hash(0, 0, 2, seed) & 255);
+        for (int s = 256; s >= 4; s >>= 1) {
+            int cx = ox / s, cy = oy / s;
+            if ((hash(cx, cy, s, seed) & 1) != 0 || s == 4) {
+                return palette(hash(cx, cy, s + 1, seed));
+            }
+        }
+        return 0;
+    }
+
+    private static int gradient(int x, int y, int width, int height, long seed) {
+        double fx = (double) x / Math.max(1, width - 1);
+        double fy = (double) y / Math.max(1, height - 1);
+        double cx = 0.25 + 0.5 * unit(hash(0, 0, 3, seed)), cy = 0.25 + 0.5 * unit(hash(0, 0, 4, seed));
+        double radial = Math.min(1, Math.sqrt((fx - cx) * (fx - cx) + (fy - cy) * (fy - cy)) * 1.5);
+        int r = (int) Math.round(255 * fx);
+        int g = (int) Math.round(255 * fy);
+        int b = (int) Math.round(255 * (1 - radial));
+        return (r << 16) | (g << 8) | b;
+    }
+
+    // Lignes de caractères 6x10 (glyphes 5x7 tirés de la graine), interligne 14, marges
+    private static int text(int x, int y, long seed) {
+        int background = 0xF4F1EA, ink = 0x1A1A2E;
+        int line = y / 14, ly = y % 14;
+        int col = x / 6, lx = x % 6;
+        if (ly >= 10 || lx >= 5 || x < 12) return background;
+        long lineHash = hash(line, 0, 5, seed);
+        int lineLength = 20 + (int) (lineHash & 127);         // Longueur de ligne variable
+        if (col - 2 >= lineLength) return background;
+        long glyph = hash(col, line, 6, seed);
+        if ((glyph & 7) == 0) return background;                // Espace entre les mots
+        if (ly >= 7) return ly == 8 && (glyph >>> 60) == 0 && lx == 2 ? ink : background; // Jambage
+        return ((glyph >>> (8 + ly * 5 + lx)) & 1) != 0 ? ink : background;
+    }
+
+    // Motif 24x24 répété : damier, rayures et disque, couleurs tirées de la graine
+    private static int tiles(int x, int y, long seed) {
+        int tx = x % 24, ty = y % 24;
+        int tileX = x / 24, tileY = y / 24;
+        int a = palette(hash(0, 0, 7, seed)), b = palette(hash(0, 0, 8, seed)), c = palette(hash(0, 0, 9, seed));
+        int dx = tx - 12, dy = ty - 12;
+        if (dx * dx + dy * dy < 36) return c;
+        if (tx % 6 < 2) return b;
+        return ((tileX + tileY) & 1) == 0 ? a : b;
+    }
+
+    // Bruit de valeur sur 4 octaves (structures lisses à plusieurs échelles), teinte variable, grain fin
+    private static int photo(int x, int y, long seed) {
+        double value = 0, amplitude = 0.5;
+        int cell = 256;
+        for (int octave = 0; octave < 4; octave++) {
+            value += amplitude * valueNoise(x, y, cell, octave, seed);
+            amplitude *= 0.5;
+            cell >>= 2;
+        }
+        value /= 0.9375; // Somme des amplitudes
+        double hue = valueNoise(x, y, 512, 10, seed);
+        int grain = (int) (hash(x, y, 11, seed) & 15) - 8;
+        int r = clamp((int) (255 * value * (0.7 + 0.3 * hue)) + grain);
+        int g = clamp((int) (255 * value * 0.85) + grain);
+        int b = clamp((int) (255 * value * (1.0 - 0.3 * hue)) + grain);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    // Mosaïque 3x2 des autres types
+    private static int mixed(int x, int y, int width, int height, long seed) {
+        int column = Math.min(2, x * 3 / width), row = Math.min(1, y * 2 / height);
+        return rgb(MIXED_KINDS[row * 3 + column], x, y, width, height, seed);
+    }
+
+    // Outils
+
+    // Bruit de valeur : interpolation (lissée) des valeurs pseudo-aléatoires d'une grille de pas cell
+    private static double valueNoise(int x, int y, int cell, int layer, long seed) {
+        int gx = x / cell, gy = y / cell;
+        double fx = smooth((double) (x % cell) / cell), fy = smooth((double) (y % cell) / cell);
+        double v00 = unit(hash(gx, gy, 100 + layer, seed)), v10 = unit(hash(gx + 1, gy, 100 + layer, seed));
+        double v01 = unit(hash(gx, gy + 1, 100 + layer, seed)), v11 = unit(hash(gx + 1, gy + 1, 100 + layer, seed));
+        double top = v00 + (v10 - v00) * fx, bottom = v01 + (v11 - v01) * fx;
+        return top + (bottom - top) * fy;
+    }
+
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static double unit(long h) {
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    private static int palette(long h) {
+        return (int) (h >>> 16) & 0xFFFFFF;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    // Hachage 64 bits de (x, y, canal, graine) : finaliseur de SplitMix64
+    private static long hash(int x, int y, int channel, long seed) {
+        long h = seed * 0x9E3779B97F4A7C15L + ((long) x << 32 ^ (y & 0xFFFFFFFFL)) * 0xBF58476D1CE4E5B9L + channel;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * Écrit une image, ou un corpus (chaque type en carrés de 256 au côté max, et en formats non carrés)
+     * Les grandes tailles demandent un tas suffisant (4 octets par pixel, par exemple -Xmx2g pour 16384x16384)
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("--corpus")) {
+            File dir = new File(args[1]);
+            int maxSide = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Impossible de créer " + dir);
+            }
+            for (Kind kind : Kind.values()) {
+                String name = kind.name().toLowerCase(Locale.ROOT);
+                for (int side = 256; side <= maxSide; side *= 4) {
+                    write(kind, side, side, 42, new File(dir, name + "-" + side + ".png"));
+                }
+                int width = Math.min(maxSide, 3000), height = width / 3;
+                write(kind, width, height, 42, new File(dir, name + "-" + width + "x" + height + ".png"));
+            }
+            return;
+        }
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Usage : java SyntheticImages <type> <largeur> <hauteur> [graine] <sortie.png|.ppm|.pam|.raw>");
+            System.out.println("        java SyntheticImages --corpus <dossier> [côté max]");
+            System.out.println("Types : flat, gradient, noise, text, tiles, photo, mixed");
+            System.exit(1);
+        }
+        Kind kind = Kind.valueOf(args[0].toUpperCase(Locale.ROOT));
+        long seed = args.length == 5 ? Long.parseLong(args[3]) : 42;
+        write(kind, Integer.parseInt(args[1]), Integer.parseInt(args[2]), seed, new File(args[args.length - 1]));
+    }
+
+    private static void write(Kind kind, int width, int height, long seed, File output) throws IOException {
+        ImagePNG img = generate(kind, width, height, seed);
+        if (RawImage.isRawFile(output.getPath())) {
+            RawImage.write(img, output.getPath()); // Raster brut : .ppm, .pam ou .raw
+        } else {
+            img.save(output.getPath());
+        }
+        System.out.println("✓ " + output + " (" + width + "x" + height + ", " + kind + ", graine " + seed + ")");
+    }
+}
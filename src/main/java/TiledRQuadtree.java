@@ -0,0 +1,882 @@
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * R-quadtree découpé en tuiles, pour les images dont même l'arbre compressé ne tient pas en mémoire
+ * Le carré racine est partagé en tuiles de côté fixe (puissance de 2) : chaque tuile est le sous-arbre
+ * du nœud RQuadtree de même position, écrit dans un magasin de tuiles sur disque et rechargé à la demande
+ * dans un cache LRU de taille bornée ; une tuile modifiée est réécrite quand elle quitte le cache
+ * Seuls les niveaux au-dessus des tuiles (couleur, luminance, feuille ou non) restent en mémoire,
+ * et une tuile réduite à une feuille n'a pas de fichier
+ *
+ * Les compressions Lambda et Phi produisent exactement le même arbre que RQuadtree (même toStr())
+ *
+ * Propriétés système (constructeur TiledRQuadtree(PixelSource)) :
+ *   compression.tiles.size       côté des tuiles (256 par défaut)
+ *   compression.tiles.cacheBytes mémoire estimée des tuiles chargées (un quart du tas par défaut)
+ *   compression.tiles.dir        répertoire du magasin de tuiles (répertoire temporaire par défaut)
+ */
+public class TiledRQuadtree implements PixelSource, Closeable {
+
+    private static final int MAGIC = 0x52515431;       // "RQT1" (fichier de tuile)
+    private static final Object OWNER = new Object();  // Jeton des nœuds des tuiles (jamais partagés)
+
+    // Tuile chargée en mémoire
+    private static class Tile {
+        final RQuadtree.Node root;
+        int nodes;                            // Nombre de nœuds (mémoire estimée)
+        boolean dirty;                        // Modifiée depuis sa dernière écriture
+
+        Tile(RQuadtree.Node root, int nodes) {
+            this.root = root;
+            this.nodes = nodes;
+        }
+    }
+
+    // Candidat à la fusion Phi : nœud d'une tuile (tas de la tuile), ou prochaine fusion d'une tuile
+    // (niveau 0) et nœud au-dessus des tuiles (niveau ≥ 1) dans le tas global
+    private static class Candidate {
+        final double variance;
+        final long key;             // Rang dans l'ordre préfixe de RQuadtree (départage les égalités)
+        final RQuadtree.Node node;
+        final int level, index;
+
+        Candidate(double variance, long key, RQuadtree.Node node, int level, int index) {
+            this.variance = variance;
+            this.key = key;
+            this.node = node;
+            this.level = level;
+            this.index = index;
+        }
+    }
+
+    // Même choix que RQuadtree.findBestNodeToMerge : plus petite variance, puis premier en ordre préfixe
+    private static final Comparator<Candidate> ORDER = (a, b) -> {
+        int cmp = Double.compare(a.variance, b.variance);
+        return cmp != 0 ? cmp : Long.compareUnsigned(a.key, b.key);
+    };
+
+    private final int width, height;
+    private final int tileSize, tileShift;  // Côté des tuiles = 2^tileShift
+    private final int grid;                 // Nombre de tuiles par côté
+    private final int depth;                // Niveau de la racine (niveau 0 = tuiles)
+
+    // Niveaux au-dessus des tuiles : indice = ligne × (grid >> niveau) + colonne
+    private final int[][] colors;
+    private final double[][] luminances;
+    private final boolean[][] leaves;       // Au niveau 0 : la racine de la tuile est une feuille
+    private final int[] tileLeaves;         // Nombre de feuilles de chaque tuile
+    private long leafCount;
+
+    private final File dir;
+    private final long cacheBytes;
+    private final LinkedHashMap<Integer, Tile> cache = new LinkedHashMap<>(16, 0.75f, true); // Ordre d'accès
+    private long cachedBytes;
+    private long tileLoads;
+
+    /**
+     * Construit l'arbre tuile par tuile, avec les réglages des propriétés système
+     * Complexité : O(n) où n = nombre de pixels de l'image
+     */
+    public TiledRQuadtree(PixelSource img) throws IOException {
+        this(img, Integer.getInteger("compression.tiles.size", 256),
+             Long.getLong("compression.tiles.cacheBytes", Runtime.getRuntime().maxMemory() / 4),
+             System.getProperty("compression.tiles.dir") == null ? null : new File(System.getProperty("compression.tiles.dir")));
+    }
+
+    /**
+     * Construit l'arbre tuile par tuile : chaque tuile est construite, écrite dans le magasin
+     * (sous-répertoire créé dans dir, ou répertoire temporaire si dir est null), puis libérée
+     * Complexité : O(n) où n = nombre de pixels de l'image
+     */
+    public TiledRQuadtree(PixelSource img, int tileSize, long cacheBytes, File dir) throws IOException {
+        if (tileSize <= 0 || Integer.bitCount(tileSize) != 1) {
+            throw new IllegalArgumentException("Le côté des tuiles doit être une puissance de 2 : " + tileSize);
+        }
+        if (cacheBytes <= 0) {
+            throw new IllegalArgumentException("La taille du cache doit être > 0");
+        }
+        this.width = img.width();
+        this.height = img.height();
+
+        // Calculer la taille nécessaire (puissance de 2), comme RQuadtree
+        int maxDim = Math.max(width, height);
+        int size = 1;
+        while (size < maxDim) {
+            size *= 2;
+        }
+        this.tileSize = Math.min(tileSize, size);
+        this.tileShift = Integer.numberOfTrailingZeros(this.tileSize);
+        this.grid = size / this.tileSize;
+        this.depth = Integer.numberOfTrailingZeros(grid);
+        this.cacheBytes = cacheBytes;
+
+        this.colors = new int[depth + 1][];
+        this.luminances = new double[depth + 1][];
+        this.leaves = new boolean[depth + 1][];
+        for (int k = 0; k <= depth; k++) {
+            int side = grid >> k;
+            colors[k] = new int[side * side];
+            luminances[k] = new double[side * side];
+            leaves[k] = new boolean[side * side];
+        }
+        this.tileLeaves = new int[grid * grid];
+
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire des tuiles : " + dir);
+        }
+        this.dir = (dir == null ? Files.createTempDirectory("tiles-") : Files.createTempDirectory(dir.toPath(), "tiles-")).toFile();
+
+        try {
+            for (int i = 0; i < tileLeaves.length; i++) {
+                buildTile(img, i);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        for (int k = 1; k <= depth; k++) {
+            for (int i = 0; i < colors[k].length; i++) {
+                averageUpper(k, i);
+                leaves[k][i] = childrenAreLeaves(k, i) && isHomogeneous(k, i);
+            }
+        }
+        this.leafCount = countLeaves(depth, 0);
+    }
+
+    // Construction
+
+    private void buildTile(PixelSource img, int index) throws IOException {
+        int x = (index % grid) << tileShift, y = (index / grid) << tileShift;
+        if (x >= width || y >= height) {
+            // Tuile hors de l'image : blanche, réduite à une feuille par la construction de RQuadtree
+            colors[0][index] = 0xFFFFFF;
+            luminances[0][index] = 1.0;
+            leaves[0][index] = true;
+            tileLeaves[index] = 1;
+            return;
+        }
+
+        RQuadtree.Node root = buildNode(img, x, y, tileSize);
+        colors[0][index] = root.color.getRGB() & 0xFFFFFF;
+        luminances[0][index] = root.luminance;
+        leaves[0][index] = root.isLeaf();
+        tileLeaves[index] = countLeaves(root);
+        if (!root.isLeaf()) {
+            writeTile(index, new Tile(root, countNodes(root)));
+        }
+    }
+
+    /**
+     * Même construction que RQuadtree.buildTree (pixels hors de l'image en blanc,
+     * fusion des 4 fils feuilles de même couleur)
+     * Complexité : O(n) où n = nombre de pixels dans la région
+     */
+    private RQuadtree.Node buildNode(PixelSource img, int x, int y, int size) {
+        RQuadtree.Node node = new RQuadtree.Node(x, y, size, OWNER);
+        if (size == 1) {
+            if (x < width && y < height) {
+                node.color = new Color(img.rgb(x, y));
+                node.calculateLuminance();
+            } else {
+                node.color = Color.WHITE;
+                node.luminance = 1.0;
+            }
+            return node;
+        }
+
+        int halfSize = size / 2;
+        node.NO = buildNode(img, x, y, halfSize);
+        node.NE = buildNode(img, x + halfSize, y, halfSize);
+        node.SE = buildNode(img, x + halfSize, y + halfSize, halfSize);
+        node.SO = buildNode(img, x, y + halfSize, halfSize);
+        if (childrenAreLeaves(node) && node.NO.color.equals(node.NE.color)
+                && node.NO.color.equals(node.SE.color) && node.NO.color.equals(node.SO.color)) {
+            mergeNode(node);
+        } else {
+            calculateAverageColor(node);
+        }
+        return node;
+    }
+
+    // Nœuds des tuiles (mêmes calculs que RQuadtree)
+
+    private static boolean childrenAreLeaves(RQuadtree.Node node) {
+        return node.NO.isLeaf() && node.NE.isLeaf() && node.SE.isLeaf() && node.SO.isLeaf();
+    }
+
+    private static void mergeNode(RQuadtree.Node node) {
+        calculateAverageColor(node);
+        node.NO = node.NE = node.SE = node.SO = null;
+    }
+
+    private static void calculateAverageColor(RQuadtree.Node node) {
+        int r = 0, g = 0, b = 0;
+        double lum = 0;
+        r += node.NO.color.getRed(); g += node.NO.color.getGreen(); b += node.NO.color.getBlue(); lum += node.NO.luminance;
+        r += node.NE.color.getRed(); g += node.NE.color.getGreen(); b += node.NE.color.getBlue(); lum += node.NE.luminance;
+        r += node.SE.color.getRed(); g += node.SE.color.getGreen(); b += node.SE.color.getBlue(); lum += node.SE.luminance;
+        r += node.SO.color.getRed(); g += node.SO.color.getGreen(); b += node.SO.color.getBlue(); lum += node.SO.luminance;
+        node.color = new Color(r / 4, g / 4, b / 4);
+        node.luminance = lum / 4;
+    }
+
+    private static double luminanceVariance(RQuadtree.Node node) {
+        double avg = node.luminance;
+        double sum = 0;
+        sum += Math.pow(node.NO.luminance - avg, 2);
+        sum += Math.pow(node.NE.luminance - avg, 2);
+        sum += Math.pow(node.SE.luminance - avg, 2);
+        sum += Math.pow(node.SO.luminance - avg, 2);
+        return sum / 4;
+    }
+
+    private static int countNodes(RQuadtree.Node node) {
+        if (node.isLeaf()) return 1;
+        return 1 + countNodes(node.NO) + countNodes(node.NE) + countNodes(node.SE) + countNodes(node.SO);
+    }
+
+    private static int countLeaves(RQuadtree.Node node) {
+        if (node.isLeaf()) return 1;
+        return countLeaves(node.NO) + countLeaves(node.NE) + countLeaves(node.SE) + countLeaves(node.SO);
+    }
+
+    // Niveaux au-dessus des tuiles
+
+    /**
+     * Indice du fils (0 = NO, 1 = NE, 2 = SE, 3 = SO) du nœud (level, index), au niveau level - 1
+     */
+    private int child(int level, int index, int quadrant) {
+        int side = grid >> level;
+        int cx = 2 * (index % side) + (quadrant == 1 || quadrant == 2 ? 1 : 0);
+        int cy = 2 * (index / side) + (quadrant >= 2 ? 1 : 0);
+        return cy * 2 * side + cx;
+    }
+
+    /**
+     * Indice du père du nœud (level, index), au niveau level + 1
+     */
+    private int parent(int level, int index) {
+        int side = grid >> level;
+        return (index / side / 2) * (side / 2) + (index % side) / 2;
+    }
+
+    /**
+     * Un nœud est présent dans l'arbre si aucun de ses ancêtres n'a été fusionné
+     * Complexité : O(d) où d = nombre de niveaux au-dessus des tuiles
+     */
+    private boolean isPresent(int level, int index) {
+        for (int k = level; k < depth; k++) {
+            index = parent(k, index);
+            if (leaves[k + 1][index]) return false;
+        }
+        return true;
+    }
+
+    private boolean childrenAreLeaves(int level, int index) {
+        for (int q = 0; q < 4; q++) {
+            if (!leaves[level - 1][child(level, index, q)]) return false;
+        }
+        return true;
+    }
+
+    private boolean isHomogeneous(int level, int index) {
+        int c = colors[level - 1][child(level, index, 0)];
+        for (int q = 1; q < 4; q++) {
+            if (colors[level - 1][child(level, index, q)] != c) return false;
+        }
+        return true;
+    }
+
+    // Même calcul que RQuadtree.calculateAverageColor (fils dans l'ordre NO, NE, SE, SO)
+    private void averageUpper(int level, int index) {
+        int r = 0, g = 0, b = 0;
+        double lum = 0;
+        for (int q = 0; q < 4; q++) {
+            int c = child(level, index, q);
+            int rgb = colors[level - 1][c];
+            r += (rgb >> 16) & 0xFF;
+            g += (rgb >> 8) & 0xFF;
+            b += rgb & 0xFF;
+            lum += luminances[level - 1][c];
+        }
+        colors[level][index] = ((r / 4) << 16) | ((g / 4) << 8) | (b / 4);
+        luminances[level][index] = lum / 4;
+    }
+
+    private double upperVariance(int level, int index) {
+        double avg = luminances[level][index];
+        double sum = 0;
+        for (int q = 0; q < 4; q++) {
+            sum += Math.pow(luminances[level - 1][child(level, index, q)] - avg, 2);
+        }
+        return sum / 4;
+    }
+
+    private void mergeUpper(int level, int index) {
+        averageUpper(level, index);
+        leaves[level][index] = true;
+        leafCount -= 3;
+    }
+
+    private long countLeaves(int level, int index) {
+        if (level == 0) return tileLeaves[index];
+        if (leaves[level][index]) return 1;
+        long sum = 0;
+        for (int q = 0; q < 4; q++) {
+            sum += countLeaves(level - 1, child(level, index, q));
+        }
+        return sum;
+    }
+
+    // Rang d'un nœud dans l'ordre préfixe (NO, NE, SE, SO) : code de Morton de son coin
+    // dont les chiffres SO et SE sont échangés (voir LinearQuadtree.candidate)
+    private static long preorderKey(int x, int y) {
+        long code = LinearQuadtree.morton(x, y);
+        return code ^ ((code >>> 1) & 0x5555555555555555L);
+    }
+
+    // Magasin de tuiles et cache LRU
+
+    private File tileFile(int index) {
+        return new File(dir, "tile-" + index + ".bin");
+    }
+
+    /**
+     * Tuile chargée (depuis le cache, sinon depuis le disque) ; les tuiles les moins récemment
+     * utilisées quittent le cache au-delà de sa taille maximale, écrites si elles ont été modifiées
+     * Complexité : O(1) si la tuile est en cache, O(t) sinon où t = nombre de nœuds de la tuile
+     */
+    private Tile tile(int index) throws IOException {
+        Tile tile = cache.get(index);
+        if (tile == null) {
+            tile = readTile(index);
+            tileLoads++;
+            cache.put(index, tile);
+            cachedBytes += tile.nodes * QuadtreeCache.NODE_BYTES;
+            evict(tile);
+        }
+        return tile;
+    }
+
+    // Retire les tuiles les moins récemment utilisées ; la tuile qui vient d'être chargée est conservée
+    private void evict(Tile keep) throws IOException {
+        Iterator<Map.Entry<Integer, Tile>> it = cache.entrySet().iterator();
+        while (cachedBytes > cacheBytes && it.hasNext()) {
+            Map.Entry<Integer, Tile> entry = it.next();
+            Tile tile = entry.getValue();
+            if (tile == keep) continue;
+            if (tile.dirty) {
+                writeTile(entry.getKey(), tile);
+            }
+            cachedBytes -= tile.nodes * QuadtreeCache.NODE_BYTES;
+            it.remove();
+        }
+    }
+
+    // Une tuile réduite à une feuille est entièrement décrite par le niveau 0 : son fichier est supprimé
+    private void dropTile(int index) {
+        Tile tile = cache.remove(index);
+        if (tile != null) {
+            cachedBytes -= tile.nodes * QuadtreeCache.NODE_BYTES;
+        }
+        tileFile(index).delete();
+    }
+
+    // Une tuile a perdu merges × 4 nœuds (et merges × 3 feuilles)
+    private void merged(int index, Tile tile, int merges) {
+        tile.nodes -= 4 * merges;
+        tile.dirty = true;
+        cachedBytes -= 4L * merges * QuadtreeCache.NODE_BYTES;
+        tileLeaves[index] -= 3 * merges;
+        leafCount -= 3L * merges;
+    }
+
+    /**
+     * Format d'une tuile : magic, x, y, côté, nombre de nœuds, puis les nœuds en ordre préfixe
+     * (NO, NE, SE, SO) : feuille (octet 1) ou nœud interne (octet 0), couleur RGB, luminance
+     * Complexité : O(t) où t = nombre de nœuds de la tuile
+     */
+    private void writeTile(int index, Tile tile) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tileFile(index)), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(tile.root.x);
+            out.writeInt(tile.root.y);
+            out.writeInt(tile.root.size);
+            out.writeInt(tile.nodes);
+            writeNode(out, tile.root);
+        }
+        tile.dirty = false;
+    }
+
+    private static void writeNode(DataOutputStream out, RQuadtree.Node node) throws IOException {
+        out.writeByte(node.isLeaf() ? 1 : 0);
+        out.writeInt(node.color.getRGB() & 0xFFFFFF);
+        out.writeDouble(node.luminance);
+        if (!node.isLeaf()) {
+            writeNode(out, node.NO);
+            writeNode(out, node.NE);
+            writeNode(out, node.SE);
+            writeNode(out, node.SO);
+        }
+    }
+
+    private Tile readTile(int index) throws IOException {
+        File file = tileFile(index);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Fichier de tuile invalide : " + file);
+            }
+            int x = in.readInt(), y = in.readInt(), size = in.readInt(), nodes = in.readInt();
+            return new Tile(readNode(in, x, y, size), nodes);
+        }
+    }
+
+    private static RQuadtree.Node readNode(DataInputStream in, int x, int y, int size) throws IOException {
+        RQuadtree.Node node = new RQuadtree.Node(x, y, size, OWNER);
+        boolean leaf = in.readByte() == 1;
+        node.color = new Color(in.readInt());
+        node.luminance = in.readDouble();
+        if (!leaf) {
+            int halfSize = size / 2;
+            node.NO = readNode(in, x, y, halfSize);
+            node.NE = readNode(in, x + halfSize, y, halfSize);
+            node.SE = readNode(in, x + halfSize, y + halfSize, halfSize);
+            node.SO = readNode(in, x, y + halfSize, halfSize);
+        }
+        return node;
+    }
+
+    // Compressions
+
+    /**
+     * Compression à qualité contrôlée (Lambda), tuile par tuile puis sur les niveaux au-dessus des tuiles
+     * Chaque tuile est chargée une fois ; le résultat est celui de RQuadtree.compressLambda
+     * Complexité : O(m) où m = nombre de nœuds de l'arbre (plus la lecture et l'écriture des tuiles)
+     */
+    public void compressLambda(double lambda) throws IOException {
+        if (lambda < 0 || lambda > 255) {
+            throw new IllegalArgumentException("Lambda doit être entre 0 et 255");
+        }
+        lambda = lambda / 255.0; // Normaliser lambda
+
+        for (int i = 0; i < tileLeaves.length; i++) {
+            if (leaves[0][i] || !isPresent(0, i)) continue;
+            Tile tile = tile(i);
+            int merges = compressLambdaRecursive(tile.root, lambda);
+            if (merges > 0) {
+                merged(i, tile, merges);
+                if (tile.root.isLeaf()) {
+                    leaves[0][i] = true;
+                    dropTile(i);
+                }
+            }
+        }
+
+        for (int k = 1; k <= depth; k++) {
+            for (int i = 0; i < colors[k].length; i++) {
+                if (leaves[k][i] || !childrenAreLeaves(k, i) || !isPresent(k, i)) continue;
+                double avgLum = luminances[k][i];
+                double maxDiff = 0;
+                for (int q = 0; q < 4; q++) {
+                    maxDiff = Math.max(maxDiff, Math.abs(luminances[k - 1][child(k, i, q)] - avgLum));
+                }
+                if (maxDiff <= lambda) {
+                    mergeUpper(k, i);
+                }
+            }
+        }
+    }
+
+    // Même règle que RQuadtree.compressLambdaRecursive ; retourne le nombre de fusions
+    private static int compressLambdaRecursive(RQuadtree.Node node, double lambda) {
+        if (node.isLeaf()) {
+            return 0;
+        }
+        int merges = compressLambdaRecursive(node.NO, lambda) + compressLambdaRecursive(node.NE, lambda)
+                   + compressLambdaRecursive(node.SE, lambda) + compressLambdaRecursive(node.SO, lambda);
+
+        if (childrenAreLeaves(node)) {
+            double avgLum = node.luminance;
+            double maxDiff = 0;
+            maxDiff = Math.max(maxDiff, Math.abs(node.NO.luminance - avgLum));
+            maxDiff = Math.max(maxDiff, Math.abs(node.NE.luminance - avgLum));
+            maxDiff = Math.max(maxDiff, Math.abs(node.SE.luminance - avgLum));
+            maxDiff = Math.max(maxDiff, Math.abs(node.SO.luminance - avgLum));
+            if (maxDiff <= lambda) {
+                mergeNode(node);
+                merges++;
+            }
+        }
+        return merges;
+    }
+
+    /**
+     * Compression à poids contrôlé (Phi), en trois passes pour ne lire chaque tuile que deux fois :
+     * - plan : l'ordre des fusions à l'intérieur d'une tuile ne dépend que de la tuile ; il est
+     *   calculé une fois (variance et rang de chaque fusion) sur une copie jetable de la tuile
+     * - sélection : un tas global contient la prochaine fusion de chaque tuile et les candidats
+     *   au-dessus des tuiles ; il fixe le nombre de fusions de chaque tuile, sans charger de tuile
+     * - application : chaque tuile concernée rejoue le début de son plan
+     * Les fusions sont celles de RQuadtree.compressPhi, dans le même ordre
+     * Complexité : O(m log m) où m = nombre de nœuds de l'arbre (plus la lecture et l'écriture des tuiles) ;
+     * mémoire : 16 octets par fusion possible (plans), en plus des niveaux au-dessus des tuiles
+     */
+    public void compressPhi(long phi) throws IOException {
+        if (phi <= 0) {
+            throw new IllegalArgumentException("Phi doit être > 0");
+        }
+        if (leafCount <= phi) return;
+
+        // Plan de chaque tuile
+        double[][] variances = new double[tileLeaves.length][];
+        long[][] keys = new long[tileLeaves.length][];
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(ORDER);
+        for (int i = 0; i < tileLeaves.length; i++) {
+            if (leaves[0][i] || !isPresent(0, i)) continue;
+            Tile tile = tile(i);
+            if (tile.dirty) {
+                writeTile(i, tile);
+            }
+            int count = (tile.nodes - 1) / 4; // Une fusion par nœud interne
+            variances[i] = new double[count];
+            keys[i] = new long[count];
+            mergeLocal(tile, count, variances[i], keys[i]);
+            cache.remove(i); // Copie modifiée par le plan : relue depuis le disque pour l'application
+            cachedBytes -= tile.nodes * QuadtreeCache.NODE_BYTES;
+            heap.add(new Candidate(variances[i][0], keys[i][0], null, 0, i));
+        }
+        for (int k = 1; k <= depth; k++) {
+            for (int i = 0; i < colors[k].length; i++) {
+                if (!leaves[k][i] && childrenAreLeaves(k, i) && isPresent(k, i)) {
+                    heap.add(upperCandidate(k, i));
+                }
+            }
+        }
+
+        // Sélection
+        int[] planned = new int[tileLeaves.length];
+        while (leafCount > phi && !heap.isEmpty()) {
+            Candidate best = heap.poll();
+            if (best.level > 0) {
+                mergeUpper(best.level, best.index);
+                offerParent(heap, best.level, best.index);
+                continue;
+            }
+            int i = best.index, next = ++planned[i];
+            tileLeaves[i] -= 3;
+            leafCount -= 3;
+            if (next == variances[i].length) {
+                leaves[0][i] = true; // La racine de la tuile est devenue une feuille
+                offerParent(heap, 0, i);
+            } else {
+                heap.add(new Candidate(variances[i][next], keys[i][next], null, 0, i));
+            }
+        }
+
+        // Application
+        for (int i = 0; i < tileLeaves.length; i++) {
+            if (planned[i] == 0) continue;
+            if (leaves[0][i]) {
+                dropTile(i);
+                continue;
+            }
+            Tile tile = tile(i);
+            mergeLocal(tile, planned[i], null, null);
+            tile.nodes -= 4 * planned[i];
+            tile.dirty = true;
+            cachedBytes -= 4L * planned[i] * QuadtreeCache.NODE_BYTES;
+        }
+    }
+
+    /**
+     * Effectue les count premières fusions Phi d'une tuile, dans l'ordre de RQuadtree.compressPhi
+     * restreint à la tuile, et note leur variance et leur rang si les tableaux sont fournis
+     * Complexité : O(t log t) où t = nombre de nœuds de la tuile
+     */
+    private static void mergeLocal(Tile tile, int count, double[] variances, long[] keys) {
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(ORDER);
+        collectCandidates(tile.root, candidates);
+        for (int n = 0; n < count; n++) {
+            Candidate best = candidates.poll();
+            if (variances != null) {
+                variances[n] = best.variance;
+                keys[n] = best.key;
+            }
+            RQuadtree.Node parent = parentOf(tile.root, best.node);
+            mergeNode(best.node);
+            if (parent != null && childrenAreLeaves(parent)) {
+                candidates.add(candidate(parent));
+            }
+        }
+    }
+
+    private static Candidate candidate(RQuadtree.Node node) {
+        return new Candidate(luminanceVariance(node), preorderKey(node.x, node.y), node, 0, -1);
+    }
+
+    private Candidate upperCandidate(int level, int index) {
+        int side = grid >> level, shift = tileShift + level;
+        return new Candidate(upperVariance(level, index),
+                             preorderKey((index % side) << shift, (index / side) << shift), null, level, index);
+    }
+
+    // Après la fusion de (level, index), son père devient candidat si ses 4 fils sont des feuilles
+    private void offerParent(PriorityQueue<Candidate> heap, int level, int index) {
+        if (level < depth) {
+            int parent = parent(level, index);
+            if (childrenAreLeaves(level + 1, parent)) {
+                heap.add(upperCandidate(level + 1, parent));
+            }
+        }
+    }
+
+    private static void collectCandidates(RQuadtree.Node node, PriorityQueue<Candidate> candidates) {
+        if (node.isLeaf()) return;
+        if (childrenAreLeaves(node)) {
+            candidates.add(candidate(node));
+            return;
+        }
+        collectCandidates(node.NO, candidates);
+        collectCandidates(node.NE, candidates);
+        collectCandidates(node.SE, candidates);
+        collectCandidates(node.SO, candidates);
+    }
+    // Père de target dans la tuile de racine root (null pour la racine)
+    private static RQuadtree.Node parentOf(RQuadtree.Node root, RQuadtree.Node target) {
+        RQuadtree.Node parent = null, node = root;
+        while (node != target) {
+            parent = node;
+            int half = node.size / 2;
+            boolean east = target.x >= node.x + half;
+            boolean south = target.y >= node.y + half;
+            if (south) {
+                node = east ? node.SE : node.SO;
+            } else {
+                node = east ? node.NE : node.NO;
+            }
+        }
+        return parent;
+    }
+
+    // Requêtes et rendu
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Couleur du pixel (x, y) au format 0xRRGGBB ; la tuile n'est chargée que si le pixel
+     * n'est pas couvert par une feuille au-dessus des tuiles
+     * Complexité : O(d + h) où d = niveaux au-dessus des tuiles, h = profondeur de la tuile
+     */
+    @Override
+    public int rgb(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            throw new IndexOutOfBoundsException("Pixel hors de l'image : (" + x + ", " + y + ")");
+        }
+        for (int k = depth; k >= 0; k--) {
+            int shift = tileShift + k;
+            int index = (y >> shift) * (grid >> k) + (x >> shift);
+            if (leaves[k][index]) {
+                return colors[k][index];
+            }
+        }
+        RQuadtree.Node node;
+        try {
+            node = tile((y >> tileShift) * grid + (x >> tileShift)).root;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        while (!node.isLeaf()) {
+            int half = node.size / 2;
+            boolean east = x >= node.x + half;
+            boolean south = y >= node.y + half;
+            if (south) {
+                node = east ? node.SE : node.SO;
+            } else {
+                node = east ? node.NE : node.NO;
+            }
+        }
+        return node.color.getRGB() & 0xFFFFFF;
+    }
+
+    /**
+     * Couleur du pixel (x, y)
+     * Complexité : celle de rgb
+     */
+    public Color colorAt(int x, int y) {
+        return new Color(rgb(x, y));
+    }
+
+    // Destination du rendu : rectangle [x0, x1[ × [y0, y1[ (déjà restreint à l'image) d'une couleur
+    private interface Sink {
+        void fill(int x0, int y0, int x1, int y1, int rgb);
+    }
+
+    /**
+     * Convertit l'arbre en ImagePNG (l'image doit tenir sur le tas)
+     * Complexité : O(n) où n = nombre de pixels
+     */
+    public ImagePNG toPNG() throws IOException {
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Image trop grande pour le tas : utiliser writeRaster");
+        }
+        int[] rgb = new int[width * height];
+        render(depth, 0, (x0, y0, x1, y1, c) -> {
+            for (int y = y0; y < y1; y++) {
+                java.util.Arrays.fill(rgb, y * width + x0, y * width + x1, c);
+            }
+        });
+        return new ImagePNG(width, height, rgb);
+    }
+
+    /**
+     * Rendu tuile par tuile dans un raster brut (.ppm, .pam ou .raw) projeté en mémoire :
+     * ni l'image ni l'arbre entier ne sont sur le tas ; le raster retourné peut être relu (EQM)
+     * Complexité : O(n) où n = nombre de pixels
+     */
+    public RawImage writeRaster(String filename) throws IOException {
+        RawImage raster = RawImage.create(filename, width, height);
+        render(depth, 0, (x0, y0, x1, y1, c) -> {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    raster.setRGB(x, y, c);
+                }
+            }
+        });
+        return raster;
+    }
+
+    private void render(int level, int index, Sink sink) throws IOException {
+        int side = grid >> level, shift = tileShift + level;
+        int x = (index % side) << shift, y = (index / side) << shift;
+        if (x >= width || y >= height) return;
+
+        if (leaves[level][index]) {
+            sink.fill(x, y, (int) Math.min(x + (1L << shift), width), (int) Math.min(y + (1L << shift), height),
+                      colors[level][index]);
+        } else if (level == 0) {
+            renderNode(tile(index).root, sink);
+        } else {
+            for (int q = 0; q < 4; q++) {
+                render(level - 1, child(level, index, q), sink);
+            }
+        }
+    }
+
+    private void renderNode(RQuadtree.Node node, Sink sink) {
+        if (node.x >= width || node.y >= height) return;
+        if (node.isLeaf()) {
+            sink.fill(node.x, node.y, Math.min(node.x + node.size, width), Math.min(node.y + node.size, height),
+                      node.color.getRGB() & 0xFFFFFF);
+        } else {
+            renderNode(node.NO, sink);
+            renderNode(node.NE, sink);
+            renderNode(node.SE, sink);
+            renderNode(node.SO, sink);
+        }
+    }
+
+    /**
+     * Produit la représentation textuelle de RQuadtree.toStr
+     * Complexité : O(m) où m = nombre de nœuds
+     */
+    public String toStr() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        appendStr(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Écrit la représentation textuelle tuile par tuile (pour un fichier, sans la garder en mémoire)
+     * Complexité : O(m) où m = nombre de nœuds
+     */
+    public void appendStr(Appendable out) throws IOException {
+        appendStr(depth, 0, out);
+    }
+
+    private void appendStr(int level, int index, Appendable out) throws IOException {
+        if (leaves[level][index]) {
+            out.append(ImagePNG.colorToHex(new Color(colors[level][index])));
+        } else if (level == 0) {
+            appendNode(tile(index).root, out);
+        } else {
+            out.append("(");
+            for (int q = 0; q < 4; q++) {
+                if (q > 0) out.append(" ");
+                appendStr(level - 1, child(level, index, q), out);
+            }
+            out.append(")");
+        }
+    }
+
+    private static void appendNode(RQuadtree.Node node, Appendable out) throws IOException {
+        if (node.isLeaf()) {
+            out.append(ImagePNG.colorToHex(node.color));
+        } else {
+            out.append("(");
+            appendNode(node.NO, out);
+            out.append(" ");
+            appendNode(node.NE, out);
+            out.append(" ");
+            appendNode(node.SE, out);
+            out.append(" ");
+            appendNode(node.SO, out);
+            out.append(")");
+        }
+    }
+
+    /**
+     * Nombre de feuilles de l'arbre
+     * Complexité : O(1)
+     */
+    public long getLeafCount() {
+        return leafCount;
+    }
+
+    /** Côté des tuiles */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /** Nombre de tuiles lues sur le disque depuis la construction */
+    public long getTileLoads() {
+        return tileLoads;
+    }
+
+    /**
+     * Supprime le magasin de tuiles
+     */
+    @Override
+    public void close() {
+        cache.clear();
+        cachedBytes = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        dir.delete();
+    }
+}